@@ -0,0 +1,129 @@
+package hu.atw.eve_hci001.kalkulator.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * A measured operation. The operation is repeated for a fixed time in every
+ * iteration, the first iterations only warm up the JIT compiler. Reports the
+ * throughput, the average time and the allocated bytes of one operation.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public abstract class Benchmark {
+	private static final ThreadMXBean THREADS = ManagementFactory
+			.getThreadMXBean();
+
+	private final String name;
+	/** Collects the results, so the JIT compiler can not drop the operation. */
+	private volatile double sink;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            Name of the benchmark.
+	 */
+	public Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Prepares the state of the operation, called once before the warmup.
+	 */
+	protected void setUp() {
+	}
+
+	/**
+	 * The measured operation.
+	 * 
+	 * @return Any value depending on the work done, it is consumed.
+	 */
+	protected abstract double run();
+
+	/**
+	 * 
+	 * @return Name of the benchmark.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Warms up and measures the operation.
+	 * 
+	 * @param warmupIterations
+	 *            Number of the iterations that are not measured.
+	 * @param iterations
+	 *            Number of the measured iterations.
+	 * @param iterationMillis
+	 *            Length of an iteration.
+	 * @return The measurement formatted as a line of the report.
+	 */
+	public String measure(int warmupIterations, int iterations,
+			long iterationMillis) {
+		setUp();
+		for (int i = 0; i < warmupIterations; i++) {
+			iteration(iterationMillis);
+		}
+		long ops = 0;
+		long nanos = 0;
+		long bytes = 0;
+		long bytesBefore = allocatedBytes();
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			ops += iteration(iterationMillis);
+			nanos += System.nanoTime() - start;
+		}
+		long bytesAfter = allocatedBytes();
+		if (bytesBefore >= 0 && bytesAfter >= 0)
+			bytes = bytesAfter - bytesBefore;
+		else
+			bytes = -1;
+		return String.format("%-36s %14.1f ops/s %14.1f ns/op %12s B/op",
+				name, ops * 1e9 / nanos, (double) nanos / ops,
+				bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes
+						/ ops));
+	}
+
+	/**
+	 * Repeats the operation for the given time.
+	 * 
+	 * @param millis
+	 *            Length of the iteration.
+	 * @return Number of the operations done.
+	 */
+	private long iteration(long millis) {
+		long end = System.nanoTime() + millis * 1000000L;
+		long ops = 0;
+		double sum = 0;
+		do {
+			/* check the clock only every 64 operations */
+			for (int i = 0; i < 64; i++) {
+				sum += run();
+			}
+			ops += 64;
+		} while (System.nanoTime() < end);
+		sink = sum;
+		return ops;
+	}
+
+	/**
+	 * 
+	 * @return Bytes allocated by the current thread so far, -1 if the JVM
+	 *         does not measure it.
+	 */
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean threads =
+					(com.sun.management.ThreadMXBean) THREADS;
+			if (threads.isThreadAllocatedMemorySupported()
+					&& threads.isThreadAllocatedMemoryEnabled())
+				return threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId());
+		}
+		return -1;
+	}
+}
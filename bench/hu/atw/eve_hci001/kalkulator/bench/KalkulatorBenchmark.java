@@ -0,0 +1,156 @@
+package hu.atw.eve_hci001.kalkulator.bench;
+
+import hu.atw.eve_hci001.kalkulator.control.Compiler;
+import hu.atw.eve_hci001.kalkulator.control.Interpreter;
+import hu.atw.eve_hci001.kalkulator.control.Lexer;
+import hu.atw.eve_hci001.kalkulator.control.ParseTraceListener;
+import hu.atw.eve_hci001.kalkulator.control.Parser;
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.ParseTree;
+import hu.atw.eve_hci001.kalkulator.model.TokenBuffer;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmarks of the interpreter stages: grammar construction, lexer, parser,
+ * compiler, evaluator and the whole execution. Every stage is measured on the
+ * sample expression, on a long chain of operators and on deeply nested
+ * parentheses.
+ * 
+ * Usage: KalkulatorBenchmark [name filter]. The iterations can be set with
+ * the bench.warmup, bench.iterations and bench.millis system properties.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class KalkulatorBenchmark {
+	private static final String SAMPLE = "3*4-4*(55-6*6+(-2*4))/3/3%2-3.23";
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 *            Optional filter, only the benchmarks whose name contains it
+	 *            are run.
+	 */
+	public static void main(String[] args) {
+		String filter = args.length > 0 ? args[0] : "";
+		int warmup = Integer.getInteger("bench.warmup", 3);
+		int iterations = Integer.getInteger("bench.iterations", 5);
+		long millis = Integer.getInteger("bench.millis", 1000);
+
+		ArrayList<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		benchmarks.add(new Benchmark("grammar") {
+			@Override
+			protected double run() {
+				return new Grammar().getSymbolId("$");
+			}
+		});
+		addStages(benchmarks, "sample", SAMPLE);
+		addStages(benchmarks, "chain1000", chain(1000));
+		addStages(benchmarks, "nested100", nested(100));
+
+		for (Benchmark benchmark : benchmarks) {
+			if (benchmark.getName().contains(filter))
+				System.out.println(benchmark.measure(warmup, iterations,
+						millis));
+		}
+	}
+
+	/**
+	 * Adds the benchmarks of every stage for an input.
+	 * 
+	 * @param benchmarks
+	 *            The list of the benchmarks.
+	 * @param inputName
+	 *            Name of the input.
+	 * @param input
+	 *            The input.
+	 */
+	private static void addStages(ArrayList<Benchmark> benchmarks,
+			String inputName, final String input) {
+		final Grammar grammar = new Grammar();
+		final Lexer lexer = new Lexer(grammar);
+		final Parser parser = new Parser(grammar);
+		final Compiler compiler = new Compiler(grammar);
+		final Interpreter interpreter = new Interpreter(grammar,
+				ParseTraceListener.NONE);
+		final TokenBuffer tokens = new TokenBuffer();
+		lexer.tokenize(input, tokens);
+		final ParseTree parseRoot = parser.parse(tokens.source(),
+				ParseTraceListener.NONE);
+		final CompiledExpression program = compiler.compile(parseRoot);
+		final double[] stack = new double[program.getMaxStack()];
+
+		benchmarks.add(new Benchmark("lexer." + inputName) {
+			@Override
+			protected double run() {
+				lexer.tokenize(input, tokens);
+				return tokens.size();
+			}
+		});
+		benchmarks.add(new Benchmark("parser." + inputName) {
+			@Override
+			protected double run() {
+				return parser.parse(tokens.source(), ParseTraceListener.NONE)
+						.size();
+			}
+		});
+		benchmarks.add(new Benchmark("compiler." + inputName) {
+			@Override
+			protected double run() {
+				return compiler.compile(parseRoot).getMaxStack();
+			}
+		});
+		benchmarks.add(new Benchmark("evaluator." + inputName) {
+			@Override
+			protected double run() {
+				return program.evaluate(stack);
+			}
+		});
+		benchmarks.add(new Benchmark("exec." + inputName) {
+			@Override
+			protected double run() {
+				return interpreter.exec(input).getValue();
+			}
+		});
+	}
+
+	/**
+	 * Generates a long chain of operators.
+	 * 
+	 * @param terms
+	 *            Number of the terms.
+	 * @return The expression.
+	 */
+	static String chain(int terms) {
+		String[] operators = { "+", "*", "-", "/", "%" };
+		StringBuilder sb = new StringBuilder("1");
+		for (int i = 1; i < terms; i++) {
+			sb.append(operators[i % operators.length]).append(i % 97 + 1)
+					.append('.').append(i % 10);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Generates deeply nested parentheses.
+	 * 
+	 * @param depth
+	 *            The depth of the nesting.
+	 * @return The expression.
+	 */
+	static String nested(int depth) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			sb.append(i + 1).append(i % 2 == 0 ? "*(" : "+(");
+		}
+		sb.append("1");
+		for (int i = 0; i < depth; i++) {
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+}
@@ -1,6 +1,19 @@
 package hu.atw.eve_hci001.kalkulator;
 
+import hu.atw.eve_hci001.kalkulator.control.ExpressionEngine;
+import hu.atw.eve_hci001.kalkulator.control.ExpressionServer;
+import hu.atw.eve_hci001.kalkulator.control.FileEvaluator;
+import hu.atw.eve_hci001.kalkulator.control.InterpreterStatistics;
 import hu.atw.eve_hci001.kalkulator.control.KalkulatorController;
+import hu.atw.eve_hci001.kalkulator.control.StreamEvaluator;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
 
 /**
  * Main class for Kalkulator.
@@ -14,10 +27,104 @@ public class Main {
 	 * Main method.
 	 * 
 	 * @param args
-	 *            Does not require arguments.
+	 *            Does not require arguments. "--server [port]" starts the
+	 *            evaluation server on the loopback interface instead of the
+	 *            graphical interface. "--file input output" evaluates the
+	 *            lines of the input file into the output file. "--filter
+	 *            [file...]" evaluates the lines of the files, or of the
+	 *            standard input if there are none ("-" also stands for it),
+	 *            and writes the results to the standard output, without
+	 *            loading the graphical interface. The server and the
+	 *            graphical interface publish their statistics over JMX. Other
+	 *            arguments print the usage and exit with status 2.
+	 * @throws IOException
+	 *             If the server can not be started or the files can not be
+	 *             read or written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			InterpreterStatistics.getDefault().register();
+			new KalkulatorController();
+			return;
+		}
+		if (args[0].equals("--server")) {
+			if (args.length > 2)
+				usage();
+			int port = ExpressionServer.DEFAULT_PORT;
+			if (args.length == 2)
+				port = parsePort(args[1]);
+			InterpreterStatistics.getDefault().register();
+			ExpressionServer server = new ExpressionServer(
+					new ExpressionEngine(1024), port);
+			System.out.println("Listening on port " + server.getLocalPort());
+			server.serve();
+		} else if (args[0].equals("--file")) {
+			if (args.length != 3)
+				usage();
+			new FileEvaluator(new ExpressionEngine()).evaluate(
+					Paths.get(args[1]), Paths.get(args[2]));
+		} else if (args[0].equals("--filter")) {
+			filter(args);
+		} else {
+			usage();
+		}
+	}
+
+	/**
+	 * Parses the port of the server.
+	 * 
+	 * @param port
+	 *            The argument.
+	 * @return The port, between 0 and 65535.
+	 */
+	private static int parsePort(String port) {
+		try {
+			int value = Integer.parseInt(port);
+			if (value >= 0 && value <= 0xFFFF)
+				return value;
+		} catch (NumberFormatException e) {
+			/* reported below */
+		}
+		System.err.println("Invalid port: \"" + port + "\"");
+		usage();
+		return -1;
+	}
+
+	/**
+	 * Prints the usage to the standard error and exits with status 2.
+	 */
+	private static void usage() {
+		System.err.println("Usage: kalkulator [--server [port] "
+				+ "| --file input output | --filter [file...]]");
+		System.exit(2);
+	}
+
+	/**
+	 * Evaluates the lines of the files given after "--filter", or of the
+	 * standard input, into the standard output.
+	 * 
+	 * @param args
+	 *            The arguments of the main method.
+	 * @throws IOException
+	 *             If a file can not be read or the output can not be written.
 	 */
-	public static void main(String[] args) {
-		new KalkulatorController();
+	private static void filter(String[] args) throws IOException {
+		StreamEvaluator evaluator = new StreamEvaluator(new ExpressionEngine());
+		/* unbuffered, the evaluator writes large blocks itself */
+		OutputStream out = new FileOutputStream(FileDescriptor.out);
+		if (args.length == 1) {
+			evaluator.evaluate(System.in, out);
+			return;
+		}
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals("-")) {
+				evaluator.evaluate(System.in, out);
+				continue;
+			}
+			try (InputStream in = new FileInputStream(args[i])) {
+				evaluator.evaluate(in, out);
+			}
+		}
 	}
 
 	/*  3*4-4*(55-6*6+(-2*4))/3/3%2-3.23  */
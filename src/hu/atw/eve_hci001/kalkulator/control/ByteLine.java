@@ -0,0 +1,78 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line of a byte buffer, read as characters without decoding it into a
+ * string. Only used as it is for ASCII lines, other lines are decoded.
+ * 
+ * @author László Ádám
+ *
+ */
+
+class ByteLine implements CharSequence {
+	private final ByteBuffer bytes;
+	private int start;
+	private int length;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param bytes
+	 *            The bytes of the lines.
+	 */
+	ByteLine(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Selects the line.
+	 * 
+	 * @param start
+	 *            Index of the first byte of the line.
+	 * @param end
+	 *            Index after the last byte of the line.
+	 */
+	void set(int start, int end) {
+		this.start = start;
+		this.length = end - start;
+	}
+
+	/**
+	 * Decodes the line.
+	 * 
+	 * @return The line decoded as UTF-8.
+	 */
+	String decode() {
+		byte[] line = new byte[length];
+		for (int i = 0; i < length; i++) {
+			line[i] = bytes.get(start + i);
+		}
+		return new String(line, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (bytes.get(start + index) & 0xFF);
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		StringBuilder sb = new StringBuilder(to - from);
+		for (int i = from; i < to; i++) {
+			sb.append(charAt(i));
+		}
+		return sb;
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
@@ -0,0 +1,375 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Translates a compiled expression into a JVM class. The postfix code maps
+ * directly onto the JVM operand stack: a push becomes an ldc2_w of a double
+ * constant, a load reads the array of the values, and the operators become
+ * dadd, dsub, dmul, dneg or a call of {@link GeneratedExpression#divide} and
+ * {@link GeneratedExpression#remainder}. The method has no branches, so the
+ * class file needs no stack map frames. Every class is defined in its own
+ * class loader, so it is unloaded as soon as its instance is no longer
+ * referenced. Can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class BytecodeCompiler {
+	/**
+	 * Largest program that is translated. HotSpot does not compile methods
+	 * with more than 8000 bytes of bytecode, a translated instruction takes
+	 * at most 5 bytes.
+	 */
+	public static final int MAX_INSTRUCTIONS = 1500;
+
+	private static final String PACKAGE =
+			"hu/atw/eve_hci001/kalkulator/control/";
+	private static final String SUPERCLASS = PACKAGE + "GeneratedExpression";
+
+	/* constant pool entries that are the same in every class */
+	private static final int THIS_CLASS = 2;
+	private static final int SUPER_CLASS = 4;
+	private static final int INIT_NAME = 5;
+	private static final int INIT_TYPE = 6;
+	private static final int SUPER_INIT = 8;
+	private static final int EVALUATE_NAME = 9;
+	private static final int EVALUATE_TYPE = 10;
+	private static final int CODE = 11;
+	private static final int DIVIDE = 15;
+	private static final int REMAINDER = 18;
+	private static final int FIRST_CONSTANT = 19;
+
+	/* constant pool tags */
+	private static final int UTF8 = 1;
+	private static final int DOUBLE = 6;
+	private static final int CLASS = 7;
+	private static final int METHOD_REF = 10;
+	private static final int NAME_AND_TYPE = 12;
+
+	/* opcodes */
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC2_W = 0x14;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int ALOAD_1 = 0x2b;
+	private static final int DALOAD = 0x31;
+	private static final int DADD = 0x63;
+	private static final int DSUB = 0x67;
+	private static final int DMUL = 0x6b;
+	private static final int DNEG = 0x77;
+	private static final int DRETURN = 0xaf;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+
+	private final AtomicLong classes = new AtomicLong();
+
+	/**
+	 * Determines if a compiled expression can be translated.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @return True, if it is not longer than {@link #MAX_INSTRUCTIONS}.
+	 */
+	public boolean canCompile(CompiledExpression program) {
+		return program.getCode().length <= MAX_INSTRUCTIONS;
+	}
+
+	/**
+	 * Translates a compiled expression into a class and instantiates it.
+	 * 
+	 * @param program
+	 *            The compiled expression, at most {@link #MAX_INSTRUCTIONS}
+	 *            long.
+	 * @return The instance of the generated class.
+	 * @throws IllegalArgumentException
+	 *             If the program is too long.
+	 */
+	public GeneratedExpression compile(CompiledExpression program) {
+		if (!canCompile(program))
+			throw new IllegalArgumentException("Program too long: "
+					+ program.getCode().length);
+		String name = PACKAGE + "Generated" + classes.incrementAndGet();
+		byte[] bytes;
+		try {
+			bytes = classFile(name, program);
+		} catch (IOException e) {
+			/* a byte array stream does not throw */
+			throw new IllegalStateException(e);
+		}
+		GeneratedClassLoader loader = new GeneratedClassLoader();
+		Class<? extends GeneratedExpression> generated = loader.define(
+				name.replace('/', '.'), bytes);
+		try {
+			return generated.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			/* the generated constructor only calls the superclass */
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the class file of a compiled expression.
+	 * 
+	 * @param name
+	 *            The internal name of the class.
+	 * @param program
+	 *            The compiled expression.
+	 * @return The class file.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static byte[] classFile(String name, CompiledExpression program)
+			throws IOException {
+		double[] constants = program.getConstants();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(52);
+
+		/* constant pool, a double takes two entries */
+		out.writeShort(FIRST_CONSTANT + 2 * constants.length);
+		utf8(out, name);
+		classEntry(out, 1);
+		utf8(out, SUPERCLASS);
+		classEntry(out, 3);
+		utf8(out, "<init>");
+		utf8(out, "()V");
+		nameAndType(out, INIT_NAME, INIT_TYPE);
+		methodRef(out, SUPER_CLASS, 7);
+		utf8(out, "evaluate");
+		utf8(out, "([D)D");
+		utf8(out, "Code");
+		utf8(out, "divide");
+		utf8(out, "(DD)D");
+		nameAndType(out, 12, 13);
+		methodRef(out, SUPER_CLASS, 14);
+		utf8(out, "remainder");
+		nameAndType(out, 16, 13);
+		methodRef(out, SUPER_CLASS, 17);
+		for (double constant : constants) {
+			out.writeByte(DOUBLE);
+			out.writeDouble(constant);
+		}
+
+		/* public final, super, no interfaces and fields */
+		out.writeShort(0x0031);
+		out.writeShort(THIS_CLASS);
+		out.writeShort(SUPER_CLASS);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		out.writeShort(2);
+		byte[] init = { (byte) ALOAD_0, (byte) INVOKESPECIAL, 0,
+				(byte) SUPER_INIT, (byte) RETURN };
+		method(out, INIT_NAME, INIT_TYPE, 1, 1, init);
+		/* two slots per double, and the array and the index of a load */
+		method(out, EVALUATE_NAME, EVALUATE_TYPE,
+				2 * program.getMaxStack() + 2, 2, code(program));
+		out.writeShort(0);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Translates the instructions of a compiled expression.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @return The bytecode of the evaluate method.
+	 */
+	private static byte[] code(CompiledExpression program) {
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		for (int instruction : program.getCode()) {
+			int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+			switch (instruction & CompiledExpression.OPCODE_MASK) {
+			case CompiledExpression.PUSH:
+				int index = FIRST_CONSTANT + 2 * operand;
+				code.write(LDC2_W);
+				code.write(index >>> 8);
+				code.write(index);
+				break;
+			case CompiledExpression.LOAD:
+				code.write(ALOAD_1);
+				if (operand <= 5) {
+					code.write(ICONST_0 + operand);
+				} else if (operand <= Byte.MAX_VALUE) {
+					code.write(BIPUSH);
+					code.write(operand);
+				} else {
+					code.write(SIPUSH);
+					code.write(operand >>> 8);
+					code.write(operand);
+				}
+				code.write(DALOAD);
+				break;
+			case CompiledExpression.ADD:
+				code.write(DADD);
+				break;
+			case CompiledExpression.SUB:
+				code.write(DSUB);
+				break;
+			case CompiledExpression.MUL:
+				code.write(DMUL);
+				break;
+			case CompiledExpression.DIV:
+				code.write(INVOKESTATIC);
+				code.write(0);
+				code.write(DIVIDE);
+				break;
+			case CompiledExpression.MOD:
+				code.write(INVOKESTATIC);
+				code.write(0);
+				code.write(REMAINDER);
+				break;
+			case CompiledExpression.NEG:
+				code.write(DNEG);
+				break;
+			}
+		}
+		code.write(DRETURN);
+		return code.toByteArray();
+	}
+
+	/**
+	 * Writes a public method with its code attribute.
+	 * 
+	 * @param out
+	 *            The class file.
+	 * @param name
+	 *            Constant pool index of the name.
+	 * @param type
+	 *            Constant pool index of the descriptor.
+	 * @param maxStack
+	 *            The size of the operand stack.
+	 * @param maxLocals
+	 *            The number of the local variables.
+	 * @param code
+	 *            The bytecode.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static void method(DataOutputStream out, int name, int type,
+			int maxStack, int maxLocals, byte[] code) throws IOException {
+		out.writeShort(0x0001);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(CODE);
+		out.writeInt(12 + code.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(code.length);
+		out.write(code);
+		/* no exception table and attributes */
+		out.writeShort(0);
+		out.writeShort(0);
+	}
+
+	/**
+	 * Writes a string entry of the constant pool.
+	 * 
+	 * @param out
+	 *            The class file.
+	 * @param value
+	 *            The string, ASCII only.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static void utf8(DataOutputStream out, String value)
+			throws IOException {
+		out.writeByte(UTF8);
+		out.writeUTF(value);
+	}
+
+	/**
+	 * Writes a class entry of the constant pool.
+	 * 
+	 * @param out
+	 *            The class file.
+	 * @param name
+	 *            Constant pool index of the internal name.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static void classEntry(DataOutputStream out, int name)
+			throws IOException {
+		out.writeByte(CLASS);
+		out.writeShort(name);
+	}
+
+	/**
+	 * Writes a name and type entry of the constant pool.
+	 * 
+	 * @param out
+	 *            The class file.
+	 * @param name
+	 *            Constant pool index of the name.
+	 * @param type
+	 *            Constant pool index of the descriptor.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static void nameAndType(DataOutputStream out, int name, int type)
+			throws IOException {
+		out.writeByte(NAME_AND_TYPE);
+		out.writeShort(name);
+		out.writeShort(type);
+	}
+
+	/**
+	 * Writes a method reference entry of the constant pool.
+	 * 
+	 * @param out
+	 *            The class file.
+	 * @param owner
+	 *            Constant pool index of the class.
+	 * @param nameAndType
+	 *            Constant pool index of the name and type.
+	 * @throws IOException
+	 *             Never, the class is written to memory.
+	 */
+	private static void methodRef(DataOutputStream out, int owner,
+			int nameAndType) throws IOException {
+		out.writeByte(METHOD_REF);
+		out.writeShort(owner);
+		out.writeShort(nameAndType);
+	}
+
+	/**
+	 * Defines a single generated class, so the class can be unloaded with its
+	 * loader.
+	 */
+	private static class GeneratedClassLoader extends ClassLoader {
+
+		/**
+		 * Constructor. Delegates to the loader of the calculator.
+		 */
+		GeneratedClassLoader() {
+			super(GeneratedExpression.class.getClassLoader());
+		}
+
+		/**
+		 * Defines the generated class.
+		 * 
+		 * @param name
+		 *            The binary name of the class.
+		 * @param bytes
+		 *            The class file.
+		 * @return The class.
+		 */
+		Class<? extends GeneratedExpression> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length).asSubclass(
+					GeneratedExpression.class);
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+
+import java.util.Arrays;
+
+/**
+ * Evaluates a compiled expression over columns of values: the value of every
+ * variable is taken from its own array, one element per row. The rows are
+ * processed in blocks, and every instruction runs as a simple loop over a
+ * whole block, which the JIT compiler turns into vector instructions. A
+ * division by zero does not stop the evaluation, it is reported in the error
+ * mask of the row. Has no state, so it can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class ColumnEvaluator {
+	/** Number of rows evaluated together, small enough to stay in cache. */
+	private static final int BLOCK_SIZE = 1024;
+
+	/**
+	 * Evaluates the expression for every row.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param columns
+	 *            The values of the variables, indexed by their slots, each
+	 *            at least as long as the results.
+	 * @param results
+	 *            Receives the value of each row, NaN for the rows with an
+	 *            error.
+	 * @param errors
+	 *            Receives the error mask: true for the rows divided by zero.
+	 * @return The number of the rows with an error.
+	 * @throws EvaluationException
+	 *             If a variable has no column.
+	 */
+	public int evaluate(CompiledExpression program, double[][] columns,
+			double[] results, boolean[] errors) {
+		return evaluate(program, columns, 0, results.length, results, errors);
+	}
+
+	/**
+	 * Evaluates the expression for a range of the rows.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param columns
+	 *            The values of the variables, indexed by their slots.
+	 * @param from
+	 *            First row of the range.
+	 * @param to
+	 *            Row after the last one of the range.
+	 * @param results
+	 *            Receives the value of each row, NaN for the rows with an
+	 *            error.
+	 * @param errors
+	 *            Receives the error mask: true for the rows divided by zero.
+	 * @return The number of the rows with an error in the range.
+	 * @throws EvaluationException
+	 *             If a variable has no column.
+	 */
+	public int evaluate(CompiledExpression program, double[][] columns,
+			int from, int to, double[] results, boolean[] errors) {
+		String[] variables = program.getVariables();
+		if (columns.length < variables.length)
+			throw new EvaluationException("Unbound variable: \""
+					+ variables[columns.length] + "\"");
+		double[][] stack = new double[program.getMaxStack()][BLOCK_SIZE];
+		int errorCount = 0;
+		for (int start = from; start < to; start += BLOCK_SIZE) {
+			int length = Math.min(BLOCK_SIZE, to - start);
+			Arrays.fill(errors, start, start + length, false);
+			evaluateBlock(program, columns, start, length, stack, errors);
+			System.arraycopy(stack[0], 0, results, start, length);
+			for (int i = start; i < start + length; i++) {
+				if (errors[i]) {
+					results[i] = Double.NaN;
+					errorCount++;
+				}
+			}
+		}
+		return errorCount;
+	}
+
+	/**
+	 * Evaluates a block of rows, the result is left in the bottom of the
+	 * stack.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param columns
+	 *            The values of the variables.
+	 * @param start
+	 *            First row of the block.
+	 * @param length
+	 *            Number of the rows in the block.
+	 * @param stack
+	 *            The operand stack, one block per level.
+	 * @param errors
+	 *            The error mask, the rows divided by zero are set.
+	 */
+	private static void evaluateBlock(CompiledExpression program,
+			double[][] columns, int start, int length, double[][] stack,
+			boolean[] errors) {
+		int[] code = program.getCode();
+		double[] constants = program.getConstants();
+		int sp = -1;
+		for (int pc = 0; pc < code.length; pc++) {
+			int instruction = code[pc];
+			int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+			switch (instruction & CompiledExpression.OPCODE_MASK) {
+			case CompiledExpression.PUSH:
+				Arrays.fill(stack[++sp], 0, length, constants[operand]);
+				break;
+			case CompiledExpression.LOAD:
+				System.arraycopy(columns[operand], start, stack[++sp], 0,
+						length);
+				break;
+			case CompiledExpression.ADD:
+				sp--;
+				add(stack[sp], stack[sp + 1], length);
+				break;
+			case CompiledExpression.SUB:
+				sp--;
+				subtract(stack[sp], stack[sp + 1], length);
+				break;
+			case CompiledExpression.MUL:
+				sp--;
+				multiply(stack[sp], stack[sp + 1], length);
+				break;
+			case CompiledExpression.DIV:
+				sp--;
+				checkDivisor(stack[sp + 1], start, length, errors);
+				divide(stack[sp], stack[sp + 1], length);
+				break;
+			case CompiledExpression.MOD:
+				sp--;
+				checkDivisor(stack[sp + 1], start, length, errors);
+				modulo(stack[sp], stack[sp + 1], length);
+				break;
+			case CompiledExpression.NEG:
+				negate(stack[sp], length);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Marks the rows with a zero divisor.
+	 * 
+	 * @param b
+	 *            The divisors.
+	 * @param start
+	 *            First row of the block.
+	 * @param length
+	 *            Number of the rows in the block.
+	 * @param errors
+	 *            The error mask.
+	 */
+	private static void checkDivisor(double[] b, int start, int length,
+			boolean[] errors) {
+		for (int i = 0; i < length; i++) {
+			errors[start + i] |= b[i] == 0.0;
+		}
+	}
+
+	/**
+	 * Adds the right operands to the left operands.
+	 * 
+	 * @param a
+	 *            The left operands, they receive the results.
+	 * @param b
+	 *            The right operands.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void add(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] += b[i];
+		}
+	}
+
+	/**
+	 * Subtracts the right operands from the left operands.
+	 * 
+	 * @param a
+	 *            The left operands, they receive the results.
+	 * @param b
+	 *            The right operands.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void subtract(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] -= b[i];
+		}
+	}
+
+	/**
+	 * Multiplies the left operands by the right operands.
+	 * 
+	 * @param a
+	 *            The left operands, they receive the results.
+	 * @param b
+	 *            The right operands.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void multiply(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] *= b[i];
+		}
+	}
+
+	/**
+	 * Divides the left operands by the right operands.
+	 * 
+	 * @param a
+	 *            The left operands, they receive the results.
+	 * @param b
+	 *            The right operands.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void divide(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] /= b[i];
+		}
+	}
+
+	/**
+	 * Computes the remainders of the left operands divided by the right
+	 * operands.
+	 * 
+	 * @param a
+	 *            The left operands, they receive the results.
+	 * @param b
+	 *            The right operands.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void modulo(double[] a, double[] b, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] %= b[i];
+		}
+	}
+
+	/**
+	 * Negates the operands.
+	 * 
+	 * @param a
+	 *            The operands, they receive the results.
+	 * @param length
+	 *            Number of the rows in the block.
+	 */
+	private static void negate(double[] a, int length) {
+		for (int i = 0; i < length; i++) {
+			a[i] = -a[i];
+		}
+	}
+}
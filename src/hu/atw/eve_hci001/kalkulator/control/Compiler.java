@@ -0,0 +1,403 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.ParseTree;
+import hu.atw.eve_hci001.kalkulator.model.TimeBudget;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Compiles a parse tree to postfix notation. Walks the tree the same way as
+ * the evaluator used to: the pending operators are shifted to the next __A or
+ * __B node, so they are emitted after both of their operands. The walk uses
+ * an explicit stack instead of recursion, so long chains of operators and
+ * deeply nested parentheses do not overflow the Java stack. The tree is
+ * walked by node indices, and the symbols are compared by their ids. Its
+ * state is only read after the construction, so it can be shared between
+ * threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class Compiler {
+	/** Marks that no operator is pending. */
+	private static final int NO_OPERATOR = -1;
+
+	private final int doubleSymbol;
+	private final int idSymbol;
+	private final int expSymbol;
+	private final int addSymbol;
+	private final int mulSymbol;
+	private final int minusSymbol;
+	/** The instructions of the operators, indexed by their symbol ids. */
+	private final int[] operators;
+	private final Lexer lexer;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grammar
+	 *            The grammar of the parse trees.
+	 */
+	public Compiler(Grammar grammar) {
+		doubleSymbol = grammar.getSymbolId("double");
+		idSymbol = grammar.getSymbolId("id");
+		expSymbol = grammar.getSymbolId("EXP");
+		addSymbol = grammar.getSymbolId("__B");
+		mulSymbol = grammar.getSymbolId("__A");
+		minusSymbol = grammar.getSymbolId("-");
+		String[] symbols = { "+", "-", "*", "/", "%" };
+		int[] instructions = { CompiledExpression.ADD, CompiledExpression.SUB,
+				CompiledExpression.MUL, CompiledExpression.DIV,
+				CompiledExpression.MOD };
+		int size = 0;
+		for (String symbol : symbols) {
+			size = Math.max(size, grammar.getSymbolId(symbol) + 1);
+		}
+		operators = new int[size];
+		for (int i = 0; i < symbols.length; i++) {
+			operators[grammar.getSymbolId(symbols[i])] = instructions[i];
+		}
+		lexer = new Lexer(grammar);
+	}
+
+	/**
+	 * Compiles the parse tree. The variables get their slots in the order of
+	 * their first occurrence.
+	 * 
+	 * @param tree
+	 *            The parse tree.
+	 * @return The compiled expression.
+	 */
+	public CompiledExpression compile(ParseTree tree) {
+		return compile(tree, null);
+	}
+
+	/**
+	 * Compiles the parse tree with declared variables.
+	 * 
+	 * @param tree
+	 *            The parse tree.
+	 * @param variables
+	 *            The names of the variables, the slot of a variable is its
+	 *            index. Null if the variables get their slots in the order of
+	 *            their first occurrence.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the expression uses a variable that is not declared.
+	 */
+	public CompiledExpression compile(ParseTree tree, String[] variables) {
+		return compile(tree, variables, null);
+	}
+
+	/**
+	 * Compiles the parse tree with declared variables within a time budget.
+	 * 
+	 * @param tree
+	 *            The parse tree.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the expression uses a variable that is not declared, or
+	 *             the budget is exhausted.
+	 */
+	public CompiledExpression compile(ParseTree tree, String[] variables,
+			TimeBudget budget) {
+		return compile(tree, variables, budget, null);
+	}
+
+	/**
+	 * Compiles the parse tree within a time budget, keeping the exact decimal
+	 * values of the numbers too, for the {@link DecimalEvaluator}.
+	 * 
+	 * @param tree
+	 *            The parse tree.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @param input
+	 *            The input the tree was parsed from, the numbers are read
+	 *            again from it. Null if the decimal values are not needed.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the expression uses a variable that is not declared, or
+	 *             the budget is exhausted.
+	 */
+	public CompiledExpression compile(ParseTree tree, String[] variables,
+			TimeBudget budget, CharSequence input) {
+		Program program = new Program(variables, input != null);
+		WorkStack work = new WorkStack();
+		work.push(0, NO_OPERATOR, NO_OPERATOR);
+		int steps = 0;
+		while (work.size > 0) {
+			if (budget != null && ++steps == TimeBudget.CHECK_INTERVAL) {
+				budget.check();
+				steps = 0;
+			}
+			work.size--;
+			int node = work.nodes[work.size];
+			int __A = work.mulOperators[work.size];
+			int __B = work.addOperators[work.size];
+			if (node == ParseTree.NONE) {
+				/* the operand of an unary minus has been compiled */
+				program.emit(CompiledExpression.NEG);
+				continue;
+			}
+			compile(program, work, tree, node, __A, __B, input);
+		}
+		return program.toCompiledExpression();
+	}
+
+	/**
+	 * Compiles a node. The subtrees still to be compiled are pushed to the
+	 * work stack, in reverse order.
+	 * 
+	 * @param program
+	 *            The program being built.
+	 * @param work
+	 *            The work stack.
+	 * @param tree
+	 *            The parse tree.
+	 * @param root
+	 *            The node.
+	 * @param __A
+	 *            Symbol of the last multiplication operator.
+	 * @param __B
+	 *            Symbol of the last addition operator.
+	 * @param input
+	 *            The input, null if the decimal values are not needed.
+	 */
+	private void compile(Program program, WorkStack work, ParseTree tree,
+			int root, int __A, int __B, CharSequence input) {
+		int rootSymbol = tree.getSymbol(root);
+		if (rootSymbol == doubleSymbol) {
+			BigDecimal decimal = null;
+			if (input != null)
+				decimal = lexer.decimal(input, tree.getNumberOffset(root));
+			program.emitPush(tree.getNumber(root), decimal);
+			return;
+		}
+		if (rootSymbol == idSymbol) {
+			program.emitLoad(tree.getName(root));
+			return;
+		}
+
+		int first = tree.getFirstChild(root);
+		if (rootSymbol == expSymbol) {
+			int second = tree.getNextSibling(first);
+			if (second == ParseTree.NONE) {
+				work.push(first, NO_OPERATOR, NO_OPERATOR);
+			} else {
+				if (tree.getSymbol(first) == minusSymbol) {
+					work.push(ParseTree.NONE, NO_OPERATOR, NO_OPERATOR);
+				}
+				work.push(second, NO_OPERATOR, NO_OPERATOR);
+			}
+			return;
+		}
+
+		if (rootSymbol == addSymbol) {
+			if (__B != NO_OPERATOR) {
+				program.emitOperator(operators[__B]);
+			}
+			if (first != ParseTree.NONE)
+				work.push(tree.getNextSibling(first), __A,
+						tree.getSymbol(first));
+			return;
+		}
+
+		if (rootSymbol == mulSymbol) {
+			if (__A != NO_OPERATOR) {
+				program.emitOperator(operators[__A]);
+			}
+			if (first != ParseTree.NONE)
+				work.push(tree.getNextSibling(first), tree.getSymbol(first),
+						__B);
+			return;
+		}
+
+		if (first == ParseTree.NONE)
+			return;
+		/* the children are contiguous, so they are pushed from the last */
+		int last = first;
+		while (tree.getNextSibling(last) != ParseTree.NONE) {
+			last = tree.getNextSibling(last);
+		}
+		for (int child = last; child >= first; child--) {
+			work.push(child, __A, __B);
+		}
+	}
+
+	/**
+	 * The nodes still to be compiled, with the operators pending at them. The
+	 * node NONE stands for the negation of the operand compiled before it.
+	 */
+	private static class WorkStack {
+		private int[] nodes = new int[16];
+		private int[] mulOperators = new int[16];
+		private int[] addOperators = new int[16];
+		private int size;
+
+		/**
+		 * Pushes a node.
+		 * 
+		 * @param node
+		 *            The node, NONE for a negation.
+		 * @param __A
+		 *            Symbol of the last multiplication operator.
+		 * @param __B
+		 *            Symbol of the last addition operator.
+		 */
+		void push(int node, int __A, int __B) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				mulOperators = Arrays.copyOf(mulOperators, size * 2);
+				addOperators = Arrays.copyOf(addOperators, size * 2);
+			}
+			nodes[size] = node;
+			mulOperators[size] = __A;
+			addOperators[size] = __B;
+			size++;
+		}
+	}
+
+	/**
+	 * The program being built by one compilation.
+	 */
+	private static class Program {
+		private int[] code = new int[16];
+		private int codeSize;
+		private double[] constants = new double[8];
+		/** The exact values of the constants, null if they are not kept. */
+		private BigDecimal[] decimals;
+		private int constantsSize;
+		private final HashMap<String, Integer> slots;
+		private final ArrayList<String> variables;
+		private final boolean declared;
+		private int stackSize;
+		private int maxStack;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param declaredVariables
+		 *            The names of the declared variables, null if the
+		 *            variables are added as they occur.
+		 * @param exact
+		 *            True, if the exact values of the constants are kept.
+		 */
+		Program(String[] declaredVariables, boolean exact) {
+			if (exact)
+				decimals = new BigDecimal[constants.length];
+			slots = new HashMap<String, Integer>();
+			variables = new ArrayList<String>();
+			declared = declaredVariables != null;
+			if (declared) {
+				for (String name : declaredVariables) {
+					if (slots.containsKey(name))
+						throw new IllegalArgumentException(
+								"Duplicate variable: \"" + name + "\"");
+					slots.put(name, variables.size());
+					variables.add(name);
+				}
+			}
+		}
+
+		/**
+		 * Emits the instruction of a binary operator.
+		 * 
+		 * @param instruction
+		 *            The instruction of the operator.
+		 */
+		void emitOperator(int instruction) {
+			emit(instruction);
+			stackSize--;
+		}
+
+		/**
+		 * Emits a constant and the instruction pushing it.
+		 * 
+		 * @param value
+		 *            The constant.
+		 * @param decimal
+		 *            The exact value of the constant, null if it is not
+		 *            kept.
+		 */
+		void emitPush(double value, BigDecimal decimal) {
+			if (constantsSize == constants.length) {
+				constants = Arrays.copyOf(constants, constantsSize * 2);
+				if (decimals != null)
+					decimals = Arrays.copyOf(decimals, constantsSize * 2);
+			}
+			constants[constantsSize] = value;
+			if (decimals != null)
+				decimals[constantsSize] = decimal;
+			emit(CompiledExpression.PUSH
+					| constantsSize << CompiledExpression.OPCODE_BITS);
+			constantsSize++;
+			if (++stackSize > maxStack)
+				maxStack = stackSize;
+		}
+
+		/**
+		 * Emits the instruction pushing a variable.
+		 * 
+		 * @param name
+		 *            The name of the variable.
+		 * @throws EvaluationException
+		 *             If the variables are declared and this is not one of
+		 *             them.
+		 */
+		void emitLoad(String name) {
+			Integer slot = slots.get(name);
+			if (slot == null) {
+				if (declared)
+					throw new EvaluationException("Unknown variable: \""
+							+ name + "\"");
+				slot = variables.size();
+				slots.put(name, slot);
+				variables.add(name);
+			}
+			emit(CompiledExpression.LOAD
+					| slot << CompiledExpression.OPCODE_BITS);
+			if (++stackSize > maxStack)
+				maxStack = stackSize;
+		}
+
+		/**
+		 * Appends an instruction to the code.
+		 * 
+		 * @param instruction
+		 *            The instruction.
+		 */
+		void emit(int instruction) {
+			if (codeSize == code.length)
+				code = Arrays.copyOf(code, codeSize * 2);
+			code[codeSize++] = instruction;
+		}
+
+		/**
+		 * 
+		 * @return The compiled expression, trimmed to its size.
+		 */
+		CompiledExpression toCompiledExpression() {
+			return new CompiledExpression(Arrays.copyOf(code, codeSize),
+					Arrays.copyOf(constants, constantsSize),
+					decimals == null ? null : Arrays.copyOf(decimals,
+							constantsSize),
+					variables.toArray(new String[variables.size()]), maxStack);
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Evaluates a compiled expression in decimal, so 0.1+0.2 is exactly 0.3. A
+ * value is kept as a long with a decimal scale (the value is the long divided
+ * by 10 to the scale) as long as it fits, and the operations use the exact
+ * methods of {@link Math}. A value only becomes a {@link BigDecimal} when an
+ * operation overflows or a division has a remainder, and it returns to a long
+ * as soon as it fits again, so the usual money calculations cost little more
+ * than the evaluation in double.
+ * 
+ * The numbers of the expression are taken from the exact decimal pool of the
+ * program, so they are exactly the written ones whatever their length. A
+ * program without the pool has its numbers only as doubles, they are converted
+ * to the shortest decimal that gives the same double, and a number with more
+ * than 15 significant digits is an error. The program must not be optimized,
+ * the optimizer folds the constants in double. The result has no trailing
+ * zeros, so equal values are printed the same way.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class DecimalEvaluator {
+	/** Largest scale of the long values. */
+	private static final int MAX_SCALE = 18;
+	private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+	/** Largest scale of the numbers converted without BigDecimal. */
+	private static final int FAST_SCALE = 6;
+	/** Numbers with at most this many significant digits survive a double. */
+	private static final int EXACT_DIGITS = 15;
+	/** Integers below this are exact in double. */
+	private static final double EXACT_LIMIT = 1L << 53;
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i <= MAX_SCALE; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private final MathContext context;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param context
+	 *            Precision and rounding of the operations on BigDecimal.
+	 *            With {@link MathContext#UNLIMITED} the operations are always
+	 *            exact, and a division without a finite decimal result is an
+	 *            error.
+	 */
+	public DecimalEvaluator(MathContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Evaluates an expression without variables.
+	 * 
+	 * @param program
+	 *            The compiled, not optimized expression.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, if the expression has variables or a
+	 *             number is not known exactly.
+	 */
+	public BigDecimal evaluate(CompiledExpression program) {
+		return evaluate(program, new double[0]);
+	}
+
+	/**
+	 * Evaluates an expression.
+	 * 
+	 * @param program
+	 *            The compiled, not optimized expression.
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @return The value of the expression, without trailing zeros and with a
+	 *         scale of at least 0.
+	 * @throws EvaluationException
+	 *             On division by zero, if a variable has no value or a number
+	 *             is not known exactly.
+	 */
+	public BigDecimal evaluate(CompiledExpression program, double[] values) {
+		String[] variables = program.getVariables();
+		if (values.length < variables.length)
+			throw new EvaluationException("Unbound variable: \""
+					+ variables[values.length] + "\"");
+		int[] code = program.getCode();
+		double[] constants = program.getConstants();
+		BigDecimal[] decimals = program.getDecimals();
+		Stack stack = new Stack(program.getMaxStack());
+		for (int pc = 0; pc < code.length; pc++) {
+			int instruction = code[pc];
+			int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+			switch (instruction & CompiledExpression.OPCODE_MASK) {
+			case CompiledExpression.PUSH:
+				if (decimals != null)
+					stack.push(decimals[operand]);
+				else
+					stack.pushConstant(constants[operand]);
+				break;
+			case CompiledExpression.LOAD:
+				stack.push(values[operand]);
+				break;
+			case CompiledExpression.ADD:
+				stack.add(false);
+				break;
+			case CompiledExpression.SUB:
+				stack.add(true);
+				break;
+			case CompiledExpression.MUL:
+				stack.multiply();
+				break;
+			case CompiledExpression.DIV:
+				stack.divide();
+				break;
+			case CompiledExpression.MOD:
+				stack.remainder();
+				break;
+			case CompiledExpression.NEG:
+				stack.negate();
+				break;
+			}
+		}
+		return normalize(stack.pop());
+	}
+
+	/**
+	 * Strips the trailing zeros of a result, but keeps it in plain notation.
+	 * 
+	 * @param value
+	 *            The result.
+	 * @return The result without trailing zeros and with a scale of at least
+	 *         0.
+	 */
+	private static BigDecimal normalize(BigDecimal value) {
+		if (value.signum() == 0)
+			return BigDecimal.ZERO;
+		value = value.stripTrailingZeros();
+		return value.scale() < 0 ? value.setScale(0) : value;
+	}
+
+	/**
+	 * The operand stack. The value of a slot is units / 10^scales when big is
+	 * null, and big otherwise.
+	 */
+	private class Stack {
+		private final long[] units;
+		private final int[] scales;
+		private final BigDecimal[] bigs;
+		private int sp = -1;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param size
+		 *            The size of the stack.
+		 */
+		Stack(int size) {
+			units = new long[size];
+			scales = new int[size];
+			bigs = new BigDecimal[size];
+		}
+
+		/**
+		 * Pushes an exact decimal.
+		 * 
+		 * @param value
+		 *            The decimal.
+		 */
+		void push(BigDecimal value) {
+			sp++;
+			set(sp, value.stripTrailingZeros());
+		}
+
+		/**
+		 * Pushes a double as the shortest decimal giving the same double.
+		 * Numbers with a few decimal places are converted without
+		 * BigDecimal: k / 10^s is correctly rounded, so if it gives the
+		 * double, k with the scale s is its decimal.
+		 * 
+		 * @param value
+		 *            The double.
+		 * @throws EvaluationException
+		 *             If the double is infinite or NaN.
+		 */
+		void push(double value) {
+			if (Double.isInfinite(value) || Double.isNaN(value))
+				throw new EvaluationException("Number out of range.");
+			sp++;
+			for (int scale = 0; scale <= FAST_SCALE; scale++) {
+				double scaled = value * POWERS_OF_TEN[scale];
+				if (Math.abs(scaled) >= EXACT_LIMIT)
+					break;
+				long unit = Math.round(scaled);
+				if (unit / (double) POWERS_OF_TEN[scale] == value) {
+					units[sp] = unit;
+					scales[sp] = scale;
+					bigs[sp] = null;
+					return;
+				}
+			}
+			BigDecimal decimal = BigDecimal.valueOf(value).stripTrailingZeros();
+			set(sp, decimal);
+		}
+
+		/**
+		 * Pushes a constant known only as a double.
+		 * 
+		 * @param value
+		 *            The double.
+		 * @throws EvaluationException
+		 *             If the double is infinite or NaN, or its shortest
+		 *             decimal has more than 15 significant digits, so it may
+		 *             not be the written number.
+		 */
+		void pushConstant(double value) {
+			push(value);
+			if (get(sp).stripTrailingZeros().precision() > EXACT_DIGITS)
+				throw new EvaluationException("Inexact number.");
+		}
+
+		/**
+		 * Pops the result.
+		 * 
+		 * @return The value on the top of the stack.
+		 */
+		BigDecimal pop() {
+			BigDecimal value = get(sp);
+			sp--;
+			return value;
+		}
+
+		/**
+		 * Adds or subtracts the two values on the top of the stack.
+		 * 
+		 * @param subtract
+		 *            True for subtraction.
+		 */
+		void add(boolean subtract) {
+			sp--;
+			if (bigs[sp] == null && bigs[sp + 1] == null && align(sp)) {
+				try {
+					long right = units[sp + 1];
+					units[sp] = subtract ? Math.subtractExact(units[sp], right)
+							: Math.addExact(units[sp], right);
+					return;
+				} catch (ArithmeticException e) {
+					/* overflow, continue with BigDecimal */
+				}
+			}
+			BigDecimal right = get(sp + 1);
+			set(sp, subtract ? get(sp).subtract(right, context) : get(sp)
+					.add(right, context));
+		}
+
+		/**
+		 * Multiplies the two values on the top of the stack.
+		 */
+		void multiply() {
+			sp--;
+			if (bigs[sp] == null && bigs[sp + 1] == null
+					&& scales[sp] + scales[sp + 1] <= MAX_SCALE) {
+				try {
+					units[sp] = Math.multiplyExact(units[sp], units[sp + 1]);
+					scales[sp] += scales[sp + 1];
+					return;
+				} catch (ArithmeticException e) {
+					/* overflow, continue with BigDecimal */
+				}
+			}
+			set(sp, get(sp).multiply(get(sp + 1), context));
+		}
+
+		/**
+		 * Divides the two values on the top of the stack.
+		 * 
+		 * @throws EvaluationException
+		 *             On division by zero, or if the result has no finite
+		 *             decimal form and the precision is unlimited.
+		 */
+		void divide() {
+			sp--;
+			checkDivisor();
+			if (bigs[sp] == null && bigs[sp + 1] == null && align(sp)) {
+				/*
+				 * same scales, so the quotient is a / b; it is exact with the
+				 * smallest scale s where a * 10^s is divisible by b
+				 */
+				long left = units[sp];
+				long right = units[sp + 1];
+				for (int scale = 0; scale <= MAX_SCALE; scale++) {
+					long scaled;
+					try {
+						scaled = Math.multiplyExact(left, POWERS_OF_TEN[scale]);
+					} catch (ArithmeticException e) {
+						break;
+					}
+					if (scaled % right == 0
+							&& (scaled != Long.MIN_VALUE || right != -1)) {
+						units[sp] = scaled / right;
+						scales[sp] = scale;
+						return;
+					}
+				}
+			}
+			try {
+				set(sp, get(sp).divide(get(sp + 1), context));
+			} catch (ArithmeticException e) {
+				throw new EvaluationException("Inexact division.");
+			}
+		}
+
+		/**
+		 * Takes the remainder of the division of the two values on the top
+		 * of the stack.
+		 * 
+		 * @throws EvaluationException
+		 *             On division by zero.
+		 */
+		void remainder() {
+			sp--;
+			checkDivisor();
+			if (bigs[sp] == null && bigs[sp + 1] == null && align(sp)) {
+				units[sp] = units[sp] % units[sp + 1];
+				return;
+			}
+			/* the remainder is always exact */
+			set(sp, get(sp).remainder(get(sp + 1)));
+		}
+
+		/**
+		 * Negates the value on the top of the stack.
+		 */
+		void negate() {
+			if (bigs[sp] == null && units[sp] != Long.MIN_VALUE)
+				units[sp] = -units[sp];
+			else
+				set(sp, get(sp).negate());
+		}
+
+		/**
+		 * Checks the divisor on the top of the stack.
+		 * 
+		 * @throws EvaluationException
+		 *             If it is zero.
+		 */
+		private void checkDivisor() {
+			if (bigs[sp + 1] == null ? units[sp + 1] == 0
+					: bigs[sp + 1].signum() == 0)
+				throw new EvaluationException("Divide by zero.");
+		}
+
+		/**
+		 * Brings two long values to the same scale.
+		 * 
+		 * @param left
+		 *            Index of the left value, the right one is above it.
+		 * @return True, if the scaled values fit into longs, false otherwise.
+		 */
+		private boolean align(int left) {
+			int right = left + 1;
+			int difference = scales[left] - scales[right];
+			if (difference == 0)
+				return true;
+			try {
+				if (difference > 0) {
+					units[right] = Math.multiplyExact(units[right],
+							POWERS_OF_TEN[difference]);
+					scales[right] = scales[left];
+				} else {
+					units[left] = Math.multiplyExact(units[left],
+							POWERS_OF_TEN[-difference]);
+					scales[left] = scales[right];
+				}
+				return true;
+			} catch (ArithmeticException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Reads a value.
+		 * 
+		 * @param index
+		 *            Index of the value.
+		 * @return The value as a BigDecimal.
+		 */
+		private BigDecimal get(int index) {
+			if (bigs[index] != null)
+				return bigs[index];
+			return BigDecimal.valueOf(units[index], scales[index]);
+		}
+
+		/**
+		 * Stores a value, as a long if it fits.
+		 * 
+		 * @param index
+		 *            Index of the value.
+		 * @param value
+		 *            The value.
+		 */
+		private void set(int index, BigDecimal value) {
+			if (value.scale() < 0)
+				value = value.setScale(0);
+			if (value.scale() <= MAX_SCALE
+					&& value.unscaledValue().bitLength() < 64) {
+				units[index] = value.unscaledValue().longValue();
+				scales[index] = value.scale();
+				bigs[index] = null;
+			} else {
+				bigs[index] = value;
+			}
+		}
+	}
+}
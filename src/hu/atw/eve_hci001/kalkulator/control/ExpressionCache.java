@@ -0,0 +1,209 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CacheStats;
+import hu.atw.eve_hci001.kalkulator.model.CachedExpression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded, thread-safe cache of expressions. The keys are split into
+ * segments by their hash, every segment is a least recently used map guarded
+ * by its own lock, so threads working on different expressions rarely wait
+ * for each other. The counters are kept in {@link LongAdder}s.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class ExpressionCache {
+	private static final int SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int capacity;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            Maximum number of expressions in the cache, it is divided
+	 *            evenly between the segments.
+	 */
+	public ExpressionCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity must be positive.");
+		this.capacity = capacity;
+		hits = new LongAdder();
+		misses = new LongAdder();
+		evictions = new LongAdder();
+		int segmentCount = Math.min(SEGMENTS, Integer.highestOneBit(capacity));
+		segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			int segmentCapacity = capacity / segmentCount
+					+ (i < capacity % segmentCount ? 1 : 0);
+			segments[i] = new Segment(segmentCapacity);
+		}
+	}
+
+	/**
+	 * Normalizes the whitespace of an expression, so the same expression
+	 * written with different spacing has the same key. Whitespace only
+	 * matters between two parts of numbers or names ("1 2" is malformed, "12"
+	 * is not), there a single space is kept, everywhere else it is removed.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The key of the expression.
+	 */
+	public static String normalize(CharSequence input) {
+		int length = input.length();
+		StringBuilder sb = new StringBuilder(length);
+		boolean pendingSpace = false;
+		for (int i = 0; i < length; i++) {
+			char ch = input.charAt(i);
+			if (Character.isWhitespace(ch)) {
+				pendingSpace = true;
+				continue;
+			}
+			if (pendingSpace && sb.length() > 0
+					&& isWordChar(sb.charAt(sb.length() - 1))
+					&& isWordChar(ch))
+				sb.append(' ');
+			pendingSpace = false;
+			sb.append(ch);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Determines if a character can be part of a number or a name.
+	 * 
+	 * @param ch
+	 *            The character.
+	 * @return True, if it's a digit, a decimal point, a letter or an
+	 *         underscore, false otherwise.
+	 */
+	private static boolean isWordChar(char ch) {
+		return (ch >= '0' && ch <= '9') || ch == '.'
+				|| (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')
+				|| ch == '_';
+	}
+
+	/**
+	 * Looks up an expression.
+	 * 
+	 * @param key
+	 *            The normalized expression.
+	 * @return The cached expression, null if it is not in the cache.
+	 */
+	public CachedExpression get(String key) {
+		CachedExpression cached = segmentFor(key).get(key);
+		if (cached == null)
+			misses.increment();
+		else
+			hits.increment();
+		return cached;
+	}
+
+	/**
+	 * Stores an expression, evicting the least recently used one of its
+	 * segment if the segment is full.
+	 * 
+	 * @param key
+	 *            The normalized expression.
+	 * @param cached
+	 *            The compiled form and the result of the expression.
+	 */
+	public void put(String key, CachedExpression cached) {
+		segmentFor(key).put(key, cached);
+	}
+
+	/**
+	 * Removes every expression, keeps the counters.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * 
+	 * @return Snapshot of the counters.
+	 */
+	public CacheStats getStats() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size,
+				capacity);
+	}
+
+	/**
+	 * Returns the segment of a key.
+	 * 
+	 * @param key
+	 *            The key.
+	 * @return The segment.
+	 */
+	private Segment segmentFor(String key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		return segments[h & (segments.length - 1)];
+	}
+
+	/**
+	 * A least recently used map with its own lock.
+	 */
+	private class Segment extends LinkedHashMap<String, CachedExpression> {
+		private static final long serialVersionUID = 1L;
+		private final int segmentCapacity;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param segmentCapacity
+		 *            Maximum number of expressions in the segment.
+		 */
+		Segment(int segmentCapacity) {
+			super(16, 0.75f, true);
+			this.segmentCapacity = segmentCapacity;
+		}
+
+		@Override
+		public synchronized CachedExpression get(Object key) {
+			return super.get(key);
+		}
+
+		@Override
+		public synchronized CachedExpression put(String key,
+				CachedExpression value) {
+			return super.put(key, value);
+		}
+
+		@Override
+		public synchronized void clear() {
+			super.clear();
+		}
+
+		@Override
+		public synchronized int size() {
+			return super.size();
+		}
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, CachedExpression> eldest) {
+			if (size() > segmentCapacity) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
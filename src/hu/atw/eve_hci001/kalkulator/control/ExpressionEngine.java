@@ -0,0 +1,490 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CacheStats;
+import hu.atw.eve_hci001.kalkulator.model.CachedExpression;
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.ExpressionDag;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.SyntaxError;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Headless entry point of the calculator. Evaluates expressions without the
+ * graphical interface and without printing anything, so it can be embedded
+ * into other applications. The grammar is built once and the engine is
+ * immutable, so one instance can be shared between threads. Optionally the
+ * compiled form and the result of the expressions are kept in a bounded
+ * cache, so repeated expressions are not interpreted again.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class ExpressionEngine {
+	/** Number of expressions a batch task evaluates without splitting. */
+	private static final int BATCH_THRESHOLD = 64;
+	/** Number of rows a column task evaluates without splitting. */
+	private static final int COLUMN_THRESHOLD = 1 << 16;
+
+	private final Interpreter interpreter;
+	private final ColumnEvaluator columnEvaluator;
+	private final DecimalEvaluator decimalEvaluator;
+	private final Recognizer recognizer;
+	private final TieredCompiler tieredCompiler;
+	private final ForkJoinPool pool;
+	private final ExpressionCache cache;
+
+	/**
+	 * Constructor. Batches are evaluated in the common fork-join pool, there
+	 * is no cache.
+	 */
+	public ExpressionEngine() {
+		this(ForkJoinPool.commonPool(), 0);
+	}
+
+	/**
+	 * Constructor. Batches are evaluated in the common fork-join pool.
+	 * 
+	 * @param cacheCapacity
+	 *            Maximum number of cached expressions, 0 for no cache.
+	 */
+	public ExpressionEngine(int cacheCapacity) {
+		this(ForkJoinPool.commonPool(), cacheCapacity);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param pool
+	 *            The pool evaluating the batches.
+	 * @param cacheCapacity
+	 *            Maximum number of cached expressions, 0 for no cache.
+	 */
+	public ExpressionEngine(ForkJoinPool pool, int cacheCapacity) {
+		Grammar grammar = new Grammar();
+		this.interpreter = new Interpreter(grammar, ParseTraceListener.NONE);
+		this.recognizer = new Recognizer(grammar);
+		this.tieredCompiler = new TieredCompiler(
+				TieredCompiler.DEFAULT_THRESHOLD,
+				TieredCompiler.DEFAULT_MAX_CLASSES);
+		this.columnEvaluator = new ColumnEvaluator();
+		this.decimalEvaluator = new DecimalEvaluator(MathContext.DECIMAL128);
+		this.pool = pool;
+		if (cacheCapacity > 0)
+			cache = new ExpressionCache(cacheCapacity);
+		else
+			cache = null;
+	}
+
+	/**
+	 * Evaluates an expression.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or can not be evaluated.
+	 */
+	public double evaluate(CharSequence input) {
+		EvaluationResult result = tryEvaluate(input);
+		if (result.isError())
+			throw new EvaluationException(result.getError());
+		return result.getValue();
+	}
+
+	/**
+	 * Compiles an expression once, so it can be evaluated repeatedly without
+	 * interpreting it again.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The compiled expression, it can be shared between threads.
+	 * @throws EvaluationException
+	 *             If the expression is malformed.
+	 */
+	public CompiledExpression compile(CharSequence input) {
+		if (cache == null)
+			return interpreter.compile(input);
+		CachedExpression cached = cached(input);
+		if (cached.getProgram() == null)
+			throw new EvaluationException(cached.getResult().getError());
+		return cached.getProgram();
+	}
+
+	/**
+	 * Compiles an expression with variables once, so it can be evaluated
+	 * against many values of the variables without parsing it again. The
+	 * values are passed to
+	 * {@link CompiledExpression#evaluate(double[], double[])} in the order of
+	 * the declared names. Such expressions are not cached, the caller keeps
+	 * the compiled form.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @param variables
+	 *            The names of the variables.
+	 * @return The compiled expression, it can be shared between threads.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or uses a variable that is
+	 *             not declared.
+	 */
+	public CompiledExpression compile(CharSequence input, String[] variables) {
+		return interpreter.compile(input, variables);
+	}
+
+	/**
+	 * Compiles an expression that will be evaluated very many times. It runs
+	 * in the evaluator at first, and is translated into JVM bytecode after
+	 * {@link TieredCompiler#DEFAULT_THRESHOLD} evaluations. At most
+	 * {@link TieredCompiler#DEFAULT_MAX_CLASSES} expressions of the engine
+	 * run as bytecode at the same time, the ones that are not used recently
+	 * return to the evaluator. Such expressions are not cached.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @return The tiered expression, it can be shared between threads.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or uses a variable that is
+	 *             not declared.
+	 */
+	public TieredExpression compileTiered(CharSequence input,
+			String[] variables) {
+		return tieredCompiler.tier(interpreter.compile(input, variables));
+	}
+
+	/**
+	 * Compiles an expression with many repeated subexpressions into a graph,
+	 * in which each distinct subexpression is stored and computed once. Such
+	 * expressions are not cached.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @return The expression as a graph, it can be shared between threads.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or uses a variable that is
+	 *             not declared.
+	 */
+	public ExpressionDag compileShared(CharSequence input, String[] variables) {
+		return interpreter.compileShared(input, variables);
+	}
+
+	/**
+	 * Evaluates an expression exactly in decimal, so 0.1+0.2 is 0.3. The
+	 * operations run on longs while the values fit, and on BigDecimal with
+	 * 34 digits ({@link MathContext#DECIMAL128}) otherwise. Such expressions
+	 * are not cached.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or can not be evaluated.
+	 */
+	public BigDecimal evaluateDecimal(CharSequence input) {
+		return decimalEvaluator.evaluate(interpreter.compileUnoptimized(input,
+				null));
+	}
+
+	/**
+	 * Evaluates an expression exactly in decimal, with the given precision of
+	 * the operations that do not fit into longs.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @param context
+	 *            Precision and rounding of the operations on BigDecimal,
+	 *            {@link MathContext#UNLIMITED} to fail on divisions without a
+	 *            finite decimal result instead of rounding them.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             If the expression is malformed or can not be evaluated.
+	 */
+	public BigDecimal evaluateDecimal(CharSequence input, MathContext context) {
+		return new DecimalEvaluator(context).evaluate(interpreter
+				.compileUnoptimized(input, null));
+	}
+
+	/**
+	 * Evaluates an expression without throwing on errors.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The value of the expression or the description of the error.
+	 */
+	public EvaluationResult tryEvaluate(CharSequence input) {
+		if (cache == null)
+			return interpreter.exec(input);
+		return cached(input).getResult();
+	}
+
+	/**
+	 * 
+	 * @return Snapshot of the cache counters, null if there is no cache.
+	 */
+	public CacheStats getCacheStats() {
+		if (cache == null)
+			return null;
+		return cache.getStats();
+	}
+
+	/**
+	 * Looks up an expression in the cache, interprets and stores it if it is
+	 * not there yet.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The compiled form and the result of the expression.
+	 */
+	private CachedExpression cached(CharSequence input) {
+		String key = ExpressionCache.normalize(input);
+		CachedExpression cached = cache.get(key);
+		if (cached != null)
+			return cached;
+		CompiledExpression program = null;
+		EvaluationResult result;
+		try {
+			program = interpreter.compile(key);
+			result = new EvaluationResult(program.evaluate());
+		} catch (EvaluationException e) {
+			result = new EvaluationResult(e.getMessage());
+		}
+		cached = new CachedExpression(program, result);
+		cache.put(key, cached);
+		return cached;
+	}
+
+	/**
+	 * Evaluates a batch of expressions in parallel. The batch is split into
+	 * chunks that are evaluated by the fork-join pool of the engine.
+	 * 
+	 * @param inputs
+	 *            The expressions.
+	 * @return The results, in the order of the expressions.
+	 */
+	public List<EvaluationResult> evaluateAll(
+			List<? extends CharSequence> inputs) {
+		CharSequence[] expressions = inputs.toArray(new CharSequence[inputs
+				.size()]);
+		EvaluationResult[] results = new EvaluationResult[expressions.length];
+		pool.invoke(new BatchTask(expressions, results, 0, results.length));
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Checks the syntax of an expression without building its parse tree and
+	 * without evaluating it.
+	 * 
+	 * @param input
+	 *            The expression.
+	 * @return The syntax errors with their offsets, empty if the expression
+	 *         is valid.
+	 */
+	public List<SyntaxError> validate(CharSequence input) {
+		return recognizer.validate(input);
+	}
+
+	/**
+	 * Checks the syntax of a batch of expressions in parallel.
+	 * 
+	 * @param inputs
+	 *            The expressions.
+	 * @return The syntax errors of the expressions, in the order of the
+	 *         expressions.
+	 */
+	public List<List<SyntaxError>> validateAll(
+			List<? extends CharSequence> inputs) {
+		CharSequence[] expressions = inputs.toArray(new CharSequence[inputs
+				.size()]);
+		/* sized up front, the tasks only set their own elements */
+		List<List<SyntaxError>> errors = new ArrayList<List<SyntaxError>>(
+				Collections.nCopies(expressions.length,
+						(List<SyntaxError>) null));
+		pool.invoke(new ValidateTask(expressions, errors, 0,
+				expressions.length));
+		return errors;
+	}
+
+	/**
+	 * Evaluates a compiled expression over columns of values, in parallel. The
+	 * value of the variable in slot i of row r is columns[i][r]. A division by
+	 * zero only fails its own row: the row gets NaN and is marked in the error
+	 * mask.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param columns
+	 *            The values of the variables, indexed by their slots, each at
+	 *            least as long as the results.
+	 * @param results
+	 *            Receives the value of each row.
+	 * @param errors
+	 *            Receives the error mask, at least as long as the results.
+	 * @return The number of the rows with an error.
+	 * @throws EvaluationException
+	 *             If a variable has no column.
+	 */
+	public int evaluateColumns(CompiledExpression program, double[][] columns,
+			double[] results, boolean[] errors) {
+		return pool.invoke(new ColumnTask(program, columns, results, errors,
+				0, results.length));
+	}
+
+	/**
+	 * Evaluates a range of a batch, splitting it while it is large.
+	 */
+	private class BatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final CharSequence[] inputs;
+		private final EvaluationResult[] results;
+		private final int from;
+		private final int to;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param inputs
+		 *            The expressions of the batch.
+		 * @param results
+		 *            The results of the batch.
+		 * @param from
+		 *            First index of the range.
+		 * @param to
+		 *            Index after the last one of the range.
+		 */
+		BatchTask(CharSequence[] inputs, EvaluationResult[] results,
+				int from, int to) {
+			this.inputs = inputs;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					results[i] = tryEvaluate(inputs[i]);
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BatchTask(inputs, results, from, middle),
+					new BatchTask(inputs, results, middle, to));
+		}
+	}
+
+	/**
+	 * Evaluates a range of rows, splitting it while it is large.
+	 */
+	private class ColumnTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+		private final CompiledExpression program;
+		private final double[][] columns;
+		private final double[] results;
+		private final boolean[] errors;
+		private final int from;
+		private final int to;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param program
+		 *            The compiled expression.
+		 * @param columns
+		 *            The values of the variables.
+		 * @param results
+		 *            The values of the rows.
+		 * @param errors
+		 *            The error mask.
+		 * @param from
+		 *            First row of the range.
+		 * @param to
+		 *            Row after the last one of the range.
+		 */
+		ColumnTask(CompiledExpression program, double[][] columns,
+				double[] results, boolean[] errors, int from, int to) {
+			this.program = program;
+			this.columns = columns;
+			this.results = results;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			if (to - from <= COLUMN_THRESHOLD)
+				return columnEvaluator.evaluate(program, columns, from, to,
+						results, errors);
+			int middle = (from + to) >>> 1;
+			ColumnTask left = new ColumnTask(program, columns, results,
+					errors, from, middle);
+			left.fork();
+			int right = new ColumnTask(program, columns, results, errors,
+					middle, to).compute();
+			return left.join() + right;
+		}
+	}
+
+	/**
+	 * Checks the syntax of a range of a batch, splitting it while it is
+	 * large.
+	 */
+	private class ValidateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final CharSequence[] inputs;
+		private final List<List<SyntaxError>> errors;
+		private final int from;
+		private final int to;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param inputs
+		 *            The expressions of the batch.
+		 * @param errors
+		 *            The errors of the batch.
+		 * @param from
+		 *            First index of the range.
+		 * @param to
+		 *            Index after the last one of the range.
+		 */
+		ValidateTask(CharSequence[] inputs, List<List<SyntaxError>> errors,
+				int from, int to) {
+			this.inputs = inputs;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= BATCH_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					errors.set(i, validate(inputs[i]));
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ValidateTask(inputs, errors, from, middle),
+					new ValidateTask(inputs, errors, middle, to));
+		}
+	}
+}
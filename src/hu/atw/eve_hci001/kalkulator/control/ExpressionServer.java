@@ -0,0 +1,423 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Evaluation server with a plain line protocol: the client sends one
+ * expression per line, the server answers with one line per expression, in
+ * the same order, containing the value ("ans= ...") or the error. Clients
+ * may send many expressions without waiting for the answers; the lines that
+ * arrive together are evaluated as one batch by the shared
+ * {@link ExpressionEngine}, and the answers are streamed back as the batches
+ * are completed. One thread handles all connections with a non-blocking
+ * selector, the batches are evaluated by a pool of worker threads. A client
+ * that has too many expressions waiting for their answers is not read until
+ * the answers are sent.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class ExpressionServer {
+	public static final int DEFAULT_PORT = 7070;
+	/** Longest accepted line, the connection is closed after a longer one. */
+	private static final int MAX_LINE_LENGTH = 1 << 16;
+	private static final int BUFFER_SIZE = 8192;
+	/** Time before accepting again after a failed accept. */
+	private static final long ACCEPT_RETRY_MILLIS = 100;
+
+	private final ExpressionEngine engine;
+	private final int maxConnections;
+	private final int maxInFlight;
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final SelectionKey serverKey;
+	private final ExecutorService workers;
+	/** Connections with a completed batch, filled by the workers. */
+	private final ConcurrentLinkedQueue<Connection> completed;
+	private int connections;
+	/** True while accepting is paused after a failed accept. */
+	private boolean acceptPaused;
+	private volatile boolean running;
+
+	/**
+	 * Constructor. Listens on the loopback interface, with at most 64
+	 * connections and 4096 expressions in flight per connection.
+	 * 
+	 * @param engine
+	 *            The engine evaluating the expressions.
+	 * @param port
+	 *            The port, 0 for any free port.
+	 * @throws IOException
+	 *             If the port can not be opened.
+	 */
+	public ExpressionServer(ExpressionEngine engine, int port)
+			throws IOException {
+		this(engine, new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				port), 64, 4096);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param engine
+	 *            The engine evaluating the expressions.
+	 * @param address
+	 *            The address to listen on.
+	 * @param maxConnections
+	 *            Maximum number of open connections, further clients are
+	 *            refused.
+	 * @param maxInFlight
+	 *            Maximum number of expressions of a connection that are
+	 *            waiting for their answers. It is checked after each read,
+	 *            so it can be exceeded by the lines of one read (at most 8
+	 *            KiB).
+	 * @throws IOException
+	 *             If the address can not be opened.
+	 */
+	public ExpressionServer(ExpressionEngine engine,
+			InetSocketAddress address, int maxConnections, int maxInFlight)
+			throws IOException {
+		this.engine = engine;
+		this.maxConnections = maxConnections;
+		this.maxInFlight = maxInFlight;
+		completed = new ConcurrentLinkedQueue<Connection>();
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(address);
+		serverChannel.configureBlocking(false);
+		serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		workers = Executors.newFixedThreadPool(Runtime.getRuntime()
+				.availableProcessors(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Kalkulator server worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		running = true;
+	}
+
+	/**
+	 * 
+	 * @return The port the server listens on.
+	 * @throws IOException
+	 *             If the port can not be queried.
+	 */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Serves the clients until {@link #close()} is called.
+	 * 
+	 * @throws IOException
+	 *             If the selector fails.
+	 */
+	public void serve() throws IOException {
+		try {
+			while (running) {
+				if (acceptPaused) {
+					selector.select(ACCEPT_RETRY_MILLIS);
+					acceptPaused = false;
+					serverKey.interestOps(SelectionKey.OP_ACCEPT);
+				} else {
+					selector.select();
+				}
+				Connection connection;
+				while ((connection = completed.poll()) != null) {
+					connection.flush();
+				}
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					connection = (Connection) key.attachment();
+					if (key.isReadable())
+						connection.read();
+					if (key.isValid() && key.isWritable())
+						connection.flush();
+				}
+				selector.selectedKeys().clear();
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * Stops the server, the connections are closed.
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Accepts a new client, or refuses it if there are too many. If the
+	 * accept fails (for example when the process has run out of file
+	 * descriptors), accepting is paused for a while, and the server keeps
+	 * serving the open connections.
+	 */
+	private void accept() {
+		SocketChannel channel;
+		try {
+			channel = serverChannel.accept();
+		} catch (IOException e) {
+			acceptPaused = true;
+			serverKey.interestOps(0);
+			return;
+		}
+		if (channel == null)
+			return;
+		try {
+			if (connections >= maxConnections) {
+				channel.write(encode("Too many connections.\n"));
+				channel.close();
+				return;
+			}
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector,
+					SelectionKey.OP_READ);
+			key.attach(new Connection(channel, key));
+			connections++;
+		} catch (IOException e) {
+			/* only this client is lost */
+			try {
+				channel.close();
+			} catch (IOException closeFailure) {
+				/* nothing left to do with the channel */
+			}
+		}
+	}
+
+	/**
+	 * Encodes a text.
+	 * 
+	 * @param text
+	 *            The text.
+	 * @return The UTF-8 bytes of the text.
+	 */
+	private static ByteBuffer encode(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Expressions that arrived together, evaluated by a worker.
+	 */
+	private static class Batch {
+		private final List<String> inputs;
+		private volatile List<EvaluationResult> results;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param inputs
+		 *            The expressions.
+		 */
+		Batch(List<String> inputs) {
+			this.inputs = inputs;
+		}
+	}
+
+	/**
+	 * State of a client connection. Only used by the selector thread, except
+	 * the results of the batches.
+	 */
+	private class Connection {
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final ByteBuffer in;
+		private byte[] line;
+		private int lineLength;
+		/** The batches in the order of arrival. */
+		private final ArrayDeque<Batch> batches;
+		private ByteBuffer out;
+		/** Number of the expressions waiting for their answers. */
+		private int inFlight;
+		/** True after the client has closed its side. */
+		private boolean finished;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param channel
+		 *            The channel of the client.
+		 * @param key
+		 *            The selection key of the channel.
+		 */
+		Connection(SocketChannel channel, SelectionKey key) {
+			this.channel = channel;
+			this.key = key;
+			in = ByteBuffer.allocate(BUFFER_SIZE);
+			line = new byte[256];
+			batches = new ArrayDeque<Batch>();
+			out = ByteBuffer.allocate(0);
+		}
+
+		/**
+		 * Reads the available bytes, and submits the complete lines as a
+		 * batch. When the client has closed its side, the last line is
+		 * submitted even without a line end, like in the file modes.
+		 */
+		void read() {
+			try {
+				int read = channel.read(in);
+				if (read == -1) {
+					finished = true;
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+					if (lineLength > 0)
+						submit(Collections.singletonList(takeLine()));
+					flush();
+					return;
+				}
+				in.flip();
+				List<String> inputs = new ArrayList<String>();
+				while (in.hasRemaining()) {
+					byte b = in.get();
+					if (b == '\n') {
+						inputs.add(takeLine());
+					} else {
+						if (lineLength == MAX_LINE_LENGTH) {
+							close();
+							return;
+						}
+						if (lineLength == line.length)
+							line = Arrays.copyOf(line, lineLength * 2);
+						line[lineLength++] = b;
+					}
+				}
+				in.clear();
+				if (!inputs.isEmpty())
+					submit(inputs);
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Takes the line collected so far.
+		 * 
+		 * @return The line without its line end.
+		 */
+		private String takeLine() {
+			int length = lineLength;
+			if (length > 0 && line[length - 1] == '\r')
+				length--;
+			lineLength = 0;
+			return new String(line, 0, length, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Submits a batch to the workers. Stops reading while too many
+		 * expressions are in flight; the whole batch is submitted, so the
+		 * limit can be exceeded by the lines of the last read. If the
+		 * evaluation fails unexpectedly, every line of the batch is answered
+		 * with an error, so the later batches are not blocked.
+		 * 
+		 * @param inputs
+		 *            The expressions of the batch.
+		 */
+		private void submit(List<String> inputs) {
+			final Batch batch = new Batch(inputs);
+			batches.add(batch);
+			inFlight += inputs.size();
+			if (inFlight >= maxInFlight)
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					List<EvaluationResult> results = null;
+					try {
+						results = engine.evaluateAll(batch.inputs);
+					} finally {
+						if (results == null)
+							results = Collections.nCopies(batch.inputs.size(),
+									new EvaluationResult("Internal error."));
+						batch.results = results;
+						completed.add(Connection.this);
+						selector.wakeup();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Writes the answers of the completed batches, in the order of the
+		 * batches, as far as the channel accepts them.
+		 */
+		void flush() {
+			if (!key.isValid())
+				return;
+			try {
+				while (true) {
+					if (out.hasRemaining()) {
+						channel.write(out);
+						if (out.hasRemaining())
+							break;
+					}
+					Batch batch = batches.peek();
+					if (batch == null || batch.results == null)
+						break;
+					batches.poll();
+					StringBuilder sb = new StringBuilder();
+					for (EvaluationResult result : batch.results) {
+						sb.append(result).append('\n');
+					}
+					out = encode(sb.toString());
+					inFlight -= batch.inputs.size();
+				}
+				int ops = out.hasRemaining() ? SelectionKey.OP_WRITE : 0;
+				if (!finished && inFlight < maxInFlight)
+					ops |= SelectionKey.OP_READ;
+				key.interestOps(ops);
+				if (finished && batches.isEmpty() && !out.hasRemaining())
+					close();
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Closes the connection, the pending answers are dropped.
+		 */
+		void close() {
+			if (!key.isValid())
+				return;
+			key.cancel();
+			connections--;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				/* nothing left to do with the channel */
+			}
+		}
+	}
+}
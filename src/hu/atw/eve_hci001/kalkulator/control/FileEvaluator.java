@@ -0,0 +1,223 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates a file with one expression per line, and writes the result of
+ * every line (the value or the error) to an output file, in the order of the
+ * lines. The input is split into chunks at line ends, the chunks are mapped
+ * into memory and evaluated in parallel, and the lexer reads the expressions
+ * directly from the mapped bytes. Only a few chunks are in progress at a
+ * time, so the heap usage does not depend on the size of the file.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class FileEvaluator {
+	/** Minimum size of a chunk, it is extended to the next line end. */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	private final ExpressionEngine engine;
+	private final int threads;
+
+	/**
+	 * Constructor. Uses as many threads as processors.
+	 * 
+	 * @param engine
+	 *            The engine evaluating the expressions.
+	 */
+	public FileEvaluator(ExpressionEngine engine) {
+		this(engine, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param engine
+	 *            The engine evaluating the expressions.
+	 * @param threads
+	 *            Number of the chunks evaluated in parallel.
+	 */
+	public FileEvaluator(ExpressionEngine engine, int threads) {
+		this.engine = engine;
+		this.threads = threads;
+	}
+
+	/**
+	 * Evaluates the lines of a file.
+	 * 
+	 * @param input
+	 *            The file of the expressions, one per line.
+	 * @param output
+	 *            The file of the results, one per line. It is overwritten.
+	 * @return The number of the lines.
+	 * @throws IOException
+	 *             If a file can not be read or written.
+	 */
+	public long evaluate(Path input, Path output) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(output,
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING)) {
+			ArrayDeque<Future<Chunk>> chunks = new ArrayDeque<Future<Chunk>>();
+			long size = in.size();
+			long start = 0;
+			long lines = 0;
+			while (start < size || !chunks.isEmpty()) {
+				/* keep two chunks per thread in progress */
+				while (start < size && chunks.size() < threads * 2) {
+					long end = chunkEnd(in, start, size);
+					chunks.add(pool.submit(new ChunkTask(in.map(
+							FileChannel.MapMode.READ_ONLY, start, end
+									- start))));
+					start = end;
+				}
+				Chunk chunk = chunks.poll().get();
+				ByteBuffer results = ByteBuffer.wrap(chunk.results, 0,
+						chunk.size);
+				while (results.hasRemaining()) {
+					out.write(results);
+				}
+				lines += chunk.lines;
+			}
+			return lines;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Finds the end of a chunk: the first line end after the minimum size of
+	 * the chunk.
+	 * 
+	 * @param in
+	 *            The input file.
+	 * @param start
+	 *            Start of the chunk.
+	 * @param size
+	 *            Size of the file.
+	 * @return The position after the line end, the size of the file if
+	 *         there is no line end.
+	 * @throws IOException
+	 *             If the file can not be read, or the line is too long to be
+	 *             mapped.
+	 */
+	private static long chunkEnd(FileChannel in, long start, long size)
+			throws IOException {
+		long position = start + CHUNK_SIZE;
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position < size) {
+			buffer.clear();
+			int read = in.read(buffer, position);
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n')
+					return position + i + 1;
+			}
+			position += read;
+			if (position - start > Integer.MAX_VALUE)
+				throw new IOException("Line too long at position " + start
+						+ ".");
+		}
+		return size;
+	}
+
+	/**
+	 * The results of a chunk.
+	 */
+	private static class Chunk {
+		private byte[] results = new byte[1 << 16];
+		private int size;
+		private int lines;
+
+		/**
+		 * Appends the result of a line.
+		 * 
+		 * @param result
+		 *            The result.
+		 */
+		void add(String result) {
+			int length = result.length();
+			if (size + length * 3 + 1 > results.length)
+				results = Arrays.copyOf(results, Math.max(results.length * 2,
+						size + length * 3 + 1));
+			for (int i = 0; i < length; i++) {
+				char ch = result.charAt(i);
+				if (ch >= 128) {
+					/* rare, only in the errors of unexpected characters */
+					byte[] encoded = result.getBytes(StandardCharsets.UTF_8);
+					System.arraycopy(encoded, 0, results, size - i,
+							encoded.length);
+					size += encoded.length - i;
+					break;
+				}
+				results[size++] = (byte) ch;
+			}
+			results[size++] = '\n';
+			lines++;
+		}
+	}
+
+	/**
+	 * Evaluates the lines of a mapped chunk.
+	 */
+	private class ChunkTask implements Callable<Chunk> {
+		private final MappedByteBuffer bytes;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param bytes
+		 *            The mapped chunk.
+		 */
+		ChunkTask(MappedByteBuffer bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public Chunk call() {
+			Chunk chunk = new Chunk();
+			ByteLine line = new ByteLine(bytes);
+			int limit = bytes.limit();
+			int start = 0;
+			while (start < limit) {
+				int end = start;
+				boolean ascii = true;
+				byte b;
+				while (end < limit && (b = bytes.get(end)) != '\n') {
+					ascii &= b >= 0;
+					end++;
+				}
+				int next = end + 1;
+				if (end > start && bytes.get(end - 1) == '\r')
+					end--;
+				line.set(start, end);
+				if (ascii)
+					chunk.add(engine.tryEvaluate(line).toString());
+				else
+					chunk.add(engine.tryEvaluate(line.decode()).toString());
+				start = next;
+			}
+			return chunk;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+
+/**
+ * Superclass of the classes generated by the {@link BytecodeCompiler}. A
+ * generated class computes one expression as straight-line double arithmetic
+ * on the JVM operand stack, which HotSpot compiles and inlines like any other
+ * small method. The divisions call the static methods of this class, so the
+ * generated code has no branches.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public abstract class GeneratedExpression {
+
+	/**
+	 * Constructor, called by the generated classes.
+	 */
+	protected GeneratedExpression() {
+	}
+
+	/**
+	 * Evaluates the expression.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots. Must be
+	 *            long enough, it is not checked.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero.
+	 */
+	public abstract double evaluate(double[] values);
+
+	/**
+	 * Divides two values the same way as the evaluator does.
+	 * 
+	 * @param a
+	 *            The left operand.
+	 * @param b
+	 *            The right operand.
+	 * @return The quotient.
+	 * @throws EvaluationException
+	 *             On division by zero.
+	 */
+	public static double divide(double a, double b) {
+		if (b == 0.0)
+			throw new EvaluationException("Divide by zero.");
+		return a / b;
+	}
+
+	/**
+	 * Takes the remainder of two values the same way as the evaluator does.
+	 * 
+	 * @param a
+	 *            The left operand.
+	 * @param b
+	 *            The right operand.
+	 * @return The remainder.
+	 * @throws EvaluationException
+	 *             On division by zero.
+	 */
+	public static double remainder(double a, double b) {
+		if (b == 0.0)
+			throw new EvaluationException("Divide by zero.");
+		return a % b;
+	}
+}
@@ -0,0 +1,96 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.ExpressionDag;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Converts a compiled expression into an {@link ExpressionDag} by hash
+ * consing: runs through the postfix code once with a stack of node ids, and
+ * looks up every node by its instruction and operand nodes before creating
+ * it, so a subexpression that occurs again gets the node of its first
+ * occurrence. Only structurally identical subexpressions are shared, a+b and
+ * b+a are two nodes. The constants are compared bit by bit, so 0 and -0 stay
+ * apart. Has no state, so it can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class HashConser {
+	/** Bits of a node id in the key of an operator node. */
+	private static final int NODE_BITS = 30;
+
+	/**
+	 * Shares the repeated subexpressions of a compiled expression.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @return The expression as a graph.
+	 */
+	public ExpressionDag share(CompiledExpression program) {
+		int[] code = program.getCode();
+		double[] programConstants = program.getConstants();
+		String[] variables = program.getVariables();
+
+		int[] instructions = new int[code.length];
+		int[] lefts = new int[code.length];
+		int[] rights = new int[code.length];
+		int size = 0;
+		double[] constants = new double[programConstants.length];
+		int constantsSize = 0;
+		/* the nodes of the constants by their bits, of the loads by slot */
+		HashMap<Long, Integer> constantNodes = new HashMap<Long, Integer>();
+		int[] loadNodes = new int[variables.length];
+		Arrays.fill(loadNodes, -1);
+		/* the nodes of the operators by their instruction and operands */
+		HashMap<Long, Integer> operatorNodes = new HashMap<Long, Integer>();
+		int[] stack = new int[program.getMaxStack()];
+		int sp = -1;
+
+		for (int pc = 0; pc < code.length; pc++) {
+			int opcode = code[pc] & CompiledExpression.OPCODE_MASK;
+			int operand = code[pc] >>> CompiledExpression.OPCODE_BITS;
+			Integer node;
+			if (opcode == CompiledExpression.PUSH) {
+				double value = programConstants[operand];
+				Long bits = Double.doubleToRawLongBits(value);
+				node = constantNodes.get(bits);
+				if (node == null) {
+					constants[constantsSize] = value;
+					instructions[size] = CompiledExpression.PUSH
+							| constantsSize++ << CompiledExpression.OPCODE_BITS;
+					node = size++;
+					constantNodes.put(bits, node);
+				}
+			} else if (opcode == CompiledExpression.LOAD) {
+				if (loadNodes[operand] == -1) {
+					instructions[size] = code[pc];
+					loadNodes[operand] = size++;
+				}
+				node = loadNodes[operand];
+			} else {
+				int right = -1;
+				if (opcode != CompiledExpression.NEG)
+					right = stack[sp--];
+				int left = stack[sp--];
+				Long key = (long) opcode << 2 * NODE_BITS
+						| (long) left << NODE_BITS | right + 1;
+				node = operatorNodes.get(key);
+				if (node == null) {
+					instructions[size] = opcode;
+					lefts[size] = left;
+					rights[size] = right;
+					node = size++;
+					operatorNodes.put(key, node);
+				}
+			}
+			stack[++sp] = node;
+		}
+		return new ExpressionDag(Arrays.copyOf(instructions, size),
+				Arrays.copyOf(lefts, size), Arrays.copyOf(rights, size),
+				Arrays.copyOf(constants, constantsSize), variables);
+	}
+}
@@ -0,0 +1,455 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.TimeBudget;
+import hu.atw.eve_hci001.kalkulator.model.TokenBuffer;
+import hu.atw.eve_hci001.kalkulator.model.TokenSource;
+
+import java.util.Arrays;
+
+/**
+ * Interpreter for an input that is edited step by step, like the input field
+ * of the graphical interface. The tokens and the values of the parenthesized
+ * groups of the previous input are kept: only the edited region is lexed
+ * again, and a group that was not touched by the edit is passed to the parser
+ * as a single number, so only the groups around the edit are parsed and
+ * evaluated again. The results are the same as the results of
+ * {@link Interpreter#exec(CharSequence)}. Keeps the state of the previous
+ * input, so an instance must not be used from more threads at the same time.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class IncrementalInterpreter {
+	private final Lexer lexer;
+	private final Parser parser;
+	private final Compiler compiler;
+	private final Optimizer optimizer;
+	private final int doubleKind;
+	private final int idKind;
+	private final int openKind;
+	private final int closeKind;
+	private final int endKind;
+	/** The last input that was lexed without an error. */
+	private State base;
+	/** The state being built for the current input. */
+	private State next;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grammar
+	 *            The grammar of the calculator.
+	 */
+	public IncrementalInterpreter(Grammar grammar) {
+		lexer = new Lexer(grammar);
+		parser = new Parser(grammar);
+		compiler = new Compiler(grammar);
+		optimizer = new Optimizer();
+		doubleKind = grammar.getSymbolId("double");
+		idKind = grammar.getSymbolId("id");
+		openKind = grammar.getSymbolId("(");
+		closeKind = grammar.getSymbolId(")");
+		endKind = grammar.getSymbolId("$");
+		base = new State();
+		next = new State();
+	}
+
+	/**
+	 * Executes the input, reusing the work done for the previous input.
+	 * 
+	 * @param input
+	 *            The input to be interpreted.
+	 * @return The value of the input or the description of the error.
+	 */
+	public EvaluationResult exec(CharSequence input) {
+		return exec(input, null);
+	}
+
+	/**
+	 * Executes the input within a time budget, reusing the work done for the
+	 * previous input.
+	 * 
+	 * @param input
+	 *            The input to be interpreted.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the input or the description of the error.
+	 */
+	public EvaluationResult exec(CharSequence input, TimeBudget budget) {
+		String text = input.toString();
+		EvaluationException lexError = relex(text, budget);
+		State state = next;
+		matchGroups(state);
+		EvaluationResult result;
+		try {
+			if (lexError == null)
+				evaluateGroups(state, budget);
+			CompiledExpression program = compile(new GroupSource(state, 0,
+					state.tokens.size(), lexError), budget);
+			result = new EvaluationResult(program.evaluate(budget));
+		} catch (EvaluationException e) {
+			result = new EvaluationResult(e.getMessage());
+		}
+		if (lexError == null) {
+			/* only a completely lexed input can be the base of the next edit */
+			state.text = text;
+			next = base;
+			base = state;
+		}
+		return result;
+	}
+
+	/**
+	 * Lexes the input into the next state. The tokens before the edited
+	 * region are copied from the base state, the edited region is lexed
+	 * again until a token starts at the same place of the unchanged end of
+	 * the input as an old token, from there the old tokens are copied with
+	 * shifted offsets.
+	 * 
+	 * @param text
+	 *            The input.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The error of the lexer or of the budget, null if the input was
+	 *         lexed completely.
+	 */
+	private EvaluationException relex(String text, TimeBudget budget) {
+		State old = base;
+		TokenBuffer oldTokens = old.tokens;
+		String oldText = old.text;
+		int prefix = 0;
+		int suffix = 0;
+		int reused = 0;
+		int start = 0;
+		if (oldText != null) {
+			int limit = Math.min(oldText.length(), text.length());
+			while (prefix < limit
+					&& oldText.charAt(prefix) == text.charAt(prefix))
+				prefix++;
+			while (suffix < limit - prefix
+					&& oldText.charAt(oldText.length() - 1 - suffix) == text
+							.charAt(text.length() - 1 - suffix))
+				suffix++;
+			/* the token before the edit may continue in it, so lex it too */
+			int before = tokensBefore(oldTokens, prefix);
+			if (before > 0) {
+				reused = before - 1;
+				start = oldTokens.getOffset(reused);
+			}
+		}
+		int delta = text.length() - (oldText == null ? 0 : oldText.length());
+		int unchanged = text.length() - suffix;
+
+		State state = next;
+		state.clear();
+		for (int i = 0; i < reused; i++) {
+			state.copy(old, i, 0, old.matches[i] < reused);
+		}
+		try {
+			TokenSource source = lexer.open(text, start);
+			while (true) {
+				int offset = source.offset();
+				if (oldText != null && offset >= unchanged) {
+					int first = findToken(oldTokens, offset - delta);
+					if (first != -1) {
+						for (int i = first; i < oldTokens.size(); i++) {
+							state.copy(old, i, delta, true);
+						}
+						return null;
+					}
+				}
+				state.tokens.add(source.kind(), source.value(), source.name(),
+						offset);
+				state.ensureCapacity();
+				if (source.kind() == endKind)
+					return null;
+				if (budget != null
+						&& state.tokens.size() % TimeBudget.CHECK_INTERVAL == 0)
+					budget.check();
+				source.advance();
+			}
+		} catch (EvaluationException e) {
+			return e;
+		}
+	}
+
+	/**
+	 * Counts the tokens starting before an offset.
+	 * 
+	 * @param tokens
+	 *            The tokens.
+	 * @param offset
+	 *            The offset.
+	 * @return The number of the tokens starting before the offset.
+	 */
+	private static int tokensBefore(TokenBuffer tokens, int offset) {
+		int low = 0;
+		int high = tokens.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (tokens.getOffset(middle) < offset)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the token starting at an offset.
+	 * 
+	 * @param tokens
+	 *            The tokens.
+	 * @param offset
+	 *            The offset.
+	 * @return Index of the token, -1 if no token starts there.
+	 */
+	private static int findToken(TokenBuffer tokens, int offset) {
+		int index = tokensBefore(tokens, offset);
+		if (index < tokens.size() && tokens.getOffset(index) == offset)
+			return index;
+		return -1;
+	}
+
+	/**
+	 * Pairs the parentheses of the tokens.
+	 * 
+	 * @param state
+	 *            The state.
+	 */
+	private void matchGroups(State state) {
+		TokenBuffer tokens = state.tokens;
+		int[] opened = new int[16];
+		int depth = 0;
+		for (int i = 0; i < tokens.size(); i++) {
+			state.matches[i] = -1;
+			int kind = tokens.getKind(i);
+			if (kind == openKind) {
+				if (depth == opened.length)
+					opened = Arrays.copyOf(opened, depth * 2);
+				opened[depth++] = i;
+			} else if (kind == closeKind && depth > 0) {
+				int open = opened[--depth];
+				state.matches[open] = i;
+				state.matches[i] = open;
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the groups whose value is not known yet, the inner groups
+	 * first, so every group is parsed with its inner groups already replaced
+	 * by their values. Groups that can not be evaluated are left unknown.
+	 * 
+	 * @param state
+	 *            The state.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @throws EvaluationException
+	 *             If the budget is exhausted.
+	 */
+	private void evaluateGroups(State state, TimeBudget budget) {
+		TokenBuffer tokens = state.tokens;
+		for (int close = 0; close < tokens.size(); close++) {
+			int open = state.matches[close];
+			if (tokens.getKind(close) != closeKind || open == -1
+					|| state.known[open])
+				continue;
+			if (budget != null)
+				budget.check();
+			try {
+				state.values[open] = compile(
+						new GroupSource(state, open, close + 1, null), budget)
+						.evaluate(budget);
+				state.known[open] = true;
+			} catch (EvaluationException e) {
+				/* the whole input reports it, if it matters */
+			}
+		}
+	}
+
+	/**
+	 * Parses, compiles and optimizes the tokens.
+	 * 
+	 * @param source
+	 *            The tokens.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the tokens are malformed or the budget is exhausted.
+	 */
+	private CompiledExpression compile(TokenSource source, TimeBudget budget) {
+		return optimizer.optimize(compiler.compile(
+				parser.parse(source, ParseTraceListener.NONE, budget), null,
+				budget));
+	}
+
+	/**
+	 * The tokens of an input with the values of the groups that are already
+	 * known.
+	 */
+	private static class State {
+		private String text;
+		private final TokenBuffer tokens = new TokenBuffer();
+		/** Index of the pair of every parenthesis, -1 for other tokens. */
+		private int[] matches = new int[16];
+		/** Whether the value of the group opened by the token is known. */
+		private boolean[] known = new boolean[16];
+		/** The value of the group opened by the token. */
+		private double[] values = new double[16];
+
+		/**
+		 * Removes the tokens.
+		 */
+		void clear() {
+			text = null;
+			tokens.clear();
+		}
+
+		/**
+		 * Copies a token of another state to the end of the tokens.
+		 * 
+		 * @param from
+		 *            The other state.
+		 * @param index
+		 *            Index of the token in the other state.
+		 * @param delta
+		 *            Shift of the offset of the token.
+		 * @param keepValue
+		 *            Whether the value of the group opened by the token is
+		 *            still valid.
+		 */
+		void copy(State from, int index, int delta, boolean keepValue) {
+			TokenBuffer source = from.tokens;
+			tokens.add(source.getKind(index), source.getValue(index),
+					source.getName(index), source.getOffset(index) + delta);
+			ensureCapacity();
+			int i = tokens.size() - 1;
+			known[i] = keepValue && from.known[index];
+			values[i] = from.values[index];
+		}
+
+		/**
+		 * Grows the arrays of the groups to the number of the tokens, and
+		 * clears the flag of the last token.
+		 */
+		void ensureCapacity() {
+			int size = tokens.size();
+			if (size > matches.length) {
+				int capacity = Math.max(size, matches.length * 2);
+				matches = Arrays.copyOf(matches, capacity);
+				known = Arrays.copyOf(known, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			known[size - 1] = false;
+		}
+	}
+
+	/**
+	 * Token stream over a range of the tokens of a state. A group with a
+	 * known value is replaced by a number, except after a number, a name or
+	 * a closing parenthesis, where the parser reports the opening
+	 * parenthesis as an error.
+	 */
+	private class GroupSource implements TokenSource {
+		private final State state;
+		private final int to;
+		private final EvaluationException lexError;
+		private int index;
+		private int nextIndex;
+		private int kind;
+		private double value;
+		private int previousKind;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param state
+		 *            The state holding the tokens.
+		 * @param from
+		 *            Index of the first token.
+		 * @param to
+		 *            Index after the last token. If it is not the end of the
+		 *            input, the end of the input is reported after the last
+		 *            token.
+		 * @param lexError
+		 *            The error thrown when the stream reaches the last token,
+		 *            null if the tokens were lexed without an error.
+		 * @throws EvaluationException
+		 *             If there are no tokens because of an error of the
+		 *             lexer.
+		 */
+		GroupSource(State state, int from, int to,
+				EvaluationException lexError) {
+			this.state = state;
+			this.to = to;
+			this.lexError = lexError;
+			previousKind = endKind;
+			moveTo(from);
+		}
+
+		@Override
+		public int kind() {
+			return kind;
+		}
+
+		@Override
+		public double value() {
+			return value;
+		}
+
+		@Override
+		public String name() {
+			if (kind == idKind)
+				return state.tokens.getName(index);
+			return null;
+		}
+
+		@Override
+		public int offset() {
+			if (index == to)
+				return state.tokens.getOffset(to - 1) + 1;
+			return state.tokens.getOffset(index);
+		}
+
+		@Override
+		public void advance() {
+			previousKind = kind;
+			moveTo(nextIndex);
+		}
+
+		/**
+		 * Makes a token the current one.
+		 * 
+		 * @param i
+		 *            Index of the token.
+		 */
+		private void moveTo(int i) {
+			index = i;
+			if (i == to) {
+				if (lexError != null)
+					throw lexError;
+				kind = endKind;
+				value = 0.0;
+				return;
+			}
+			TokenBuffer tokens = state.tokens;
+			kind = tokens.getKind(i);
+			value = tokens.getValue(i);
+			nextIndex = i + 1;
+			if (kind == openKind && state.known[i] && state.matches[i] > i
+					&& state.matches[i] < to && previousKind != doubleKind
+					&& previousKind != idKind && previousKind != closeKind) {
+				kind = doubleKind;
+				value = state.values[i];
+				nextIndex = state.matches[i] + 1;
+			}
+		}
+	}
+}
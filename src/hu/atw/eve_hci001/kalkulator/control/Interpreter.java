@@ -1,42 +1,72 @@
 package hu.atw.eve_hci001.kalkulator.control;
 
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.ExpressionDag;
 import hu.atw.eve_hci001.kalkulator.model.Grammar;
-import hu.atw.eve_hci001.kalkulator.model.LexerToken;
 import hu.atw.eve_hci001.kalkulator.model.ParseTree;
-import hu.atw.eve_hci001.kalkulator.model.Rule;
-
-import java.util.ArrayList;
-import java.util.Stack;
+import hu.atw.eve_hci001.kalkulator.model.TimeBudget;
 
 /**
- * Interpreter for a simple calculator. Assumes that the input is checked before
- * the interpretation starts.
+ * Interpreter for a simple calculator. Does not depend on the graphical
+ * interface: the outcome of every execution is returned as an
+ * {@link EvaluationResult}. The state of an execution is kept in local
+ * variables, so one instance can be used from many threads at the same time
+ * (as long as the trace listener allows that).
  * 
  * @author László Ádám
  *
  */
 
 public class Interpreter {
-	private KalkulatorController controller;
-	private String input;
-	private ArrayList<LexerToken> lexerTokens;
-	private ParseTree parseRoot;
-	private Stack<Double> evalStack;
-	private Grammar grammar;
-	private boolean errorOccurred;
+	private final Grammar grammar;
+	private final Lexer lexer;
+	private final Parser parser;
+	private final Compiler compiler;
+	private final Optimizer optimizer;
+	private final HashConser hashConser;
+	private final ParseTraceListener trace;
+	private final InterpreterStatistics statistics;
+
+	/**
+	 * Constructor. The executions are recorded in the default
+	 * {@link InterpreterStatistics}.
+	 * 
+	 * @param grammar
+	 *            The grammar of the calculator. It is only read, so it can be
+	 *            shared between interpreters.
+	 * @param trace
+	 *            Receives the steps of the interpretation,
+	 *            {@link ParseTraceListener#NONE} if they are not needed.
+	 */
+	public Interpreter(Grammar grammar, ParseTraceListener trace) {
+		this(grammar, trace, InterpreterStatistics.getDefault());
+	}
 
 	/**
 	 * Constructor.
 	 * 
-	 * @param controller
-	 *            The controller class.
+	 * @param grammar
+	 *            The grammar of the calculator. It is only read, so it can be
+	 *            shared between interpreters.
+	 * @param trace
+	 *            Receives the steps of the interpretation,
+	 *            {@link ParseTraceListener#NONE} if they are not needed.
+	 * @param statistics
+	 *            Records the latencies of the executions.
 	 */
-	public Interpreter(KalkulatorController controller) {
-		this.controller = controller;
-		lexerTokens = new ArrayList<LexerToken>();
-		evalStack = new Stack<Double>();
-		grammar = new Grammar();
-		grammar.printParsingTale();
+	public Interpreter(Grammar grammar, ParseTraceListener trace,
+			InterpreterStatistics statistics) {
+		this.grammar = grammar;
+		this.trace = trace;
+		this.statistics = statistics;
+		lexer = new Lexer(grammar);
+		parser = new Parser(grammar);
+		compiler = new Compiler(grammar);
+		optimizer = new Optimizer();
+		hashConser = new HashConser();
+		trace.parsingTable(grammar);
 	}
 
 	/**
@@ -44,257 +74,219 @@ public class Interpreter {
 	 * 
 	 * @param input
 	 *            The input to be interpreted.
+	 * @return The value of the input or the description of the error.
 	 */
-	public void exec(String input) {
-		this.input = input;
-		errorOccurred = false;
-		/* lexer */
-		lexer();
-		printLexerOutput();
-		if (errorOccurred) {
-			return;
-		}
-		/* parser */
-		parser();
-		if (errorOccurred) {
-			return;
-		}
-		evalStack.clear();
-		System.out.println("\nEvaluating...");
-		/* evaluator */
-		evaluator(parseRoot, null, null);
-		if (!errorOccurred)
-			controller.setOutput(evalStack.pop());
+	public EvaluationResult exec(CharSequence input) {
+		return exec(input, null);
 	}
 
 	/**
-	 * The lexer method. Generates the lexer tokens.
+	 * Executes the input within a time budget. The lexer, the parser, the
+	 * compiler and the evaluator stop when the budget is exhausted or the
+	 * thread is interrupted. The durations of the stages are recorded in the
+	 * statistics.
+	 * 
+	 * @param input
+	 *            The input to be interpreted.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the input or the description of the error.
 	 */
-	private void lexer() {
-		lexerTokens.clear();
-		String tokenString = "";
-		for (int i = 0; i < input.length(); i++) {
-			char ch = input.charAt(i);
-			if (Character.isDigit(ch)) {
-				boolean decimalPoint = false;
-				while (Character.isDigit(ch)) {
-					tokenString += ch;
-					++i;
-					if (i == input.length())
-						break;
-					ch = input.charAt(i);
-					if (ch == '.') {
-						if (!decimalPoint) {
-							/* number with decimal point */
-							tokenString += ch;
-							decimalPoint = true;
-							i++;
-							if (i == input.length())
-								break;
-							ch = input.charAt(i);
-						} else {
-							errorOccurred = true;
-							controller
-									.errorOccurred("Wrong decimal point placement.");
-							return;
-						}
-					}
-				}
-				if (tokenString.endsWith(".")) {
-					errorOccurred = true;
-					controller.errorOccurred("Wrong decimal point placement.");
-					return;
-				}
-				lexerTokens.add(new LexerToken("double", Double
-						.parseDouble(tokenString)));
-				tokenString = "";
-				--i;
-			} else if (grammar.isOperator(ch)) {
-				lexerTokens.add(new LexerToken("" + ch, ""));
-			} else {
-				/* the input is well checked, this will never happen */
-			}
+	public EvaluationResult exec(CharSequence input, TimeBudget budget) {
+		EvaluationResult result;
+		long parse = -1;
+		long compile = -1;
+		long evaluate = -1;
+		int nodes = 0;
+		long start = System.nanoTime();
+		try {
+			/* lexer and parser */
+			ParseTree parseRoot = parser(input, budget);
+			long parsed = System.nanoTime();
+			parse = parsed - start;
+			nodes = parseRoot.size();
+			CompiledExpression program = compile(parseRoot, null, budget);
+			long compiled = System.nanoTime();
+			compile = compiled - parsed;
+			/* evaluator */
+			result = new EvaluationResult(evaluator(program, budget));
+			evaluate = System.nanoTime() - compiled;
+		} catch (EvaluationException e) {
+			/* the stage that failed is the first one without a duration */
+			long failed = System.nanoTime() - start;
+			if (parse == -1)
+				parse = failed;
+			else if (compile == -1)
+				compile = failed - parse;
+			else
+				evaluate = failed - parse - compile;
+			result = new EvaluationResult(e.getMessage());
 		}
-		lexerTokens.add(new LexerToken("$", ""));
+		statistics.record(parse, compile, evaluate, nodes, result);
+		trace.evaluated(result);
+		return result;
 	}
 
 	/**
-	 * Prints the generated lexer tokens.
+	 * Compiles the input, so it can be evaluated repeatedly without
+	 * interpreting it again.
+	 * 
+	 * @param input
+	 *            The input to be compiled.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the input is malformed.
 	 */
-	private void printLexerOutput() {
-		String s = "Lexer:\n";
-		for (LexerToken token : lexerTokens) {
-			s += token.getType() + " " + token.getValue().toString() + "\n";
-		}
-		System.out.print(s);
+	public CompiledExpression compile(CharSequence input) {
+		return compile(input, null);
 	}
 
 	/**
-	 * Parser method. Generates the parse tree.
+	 * Compiles the input with declared variables, so it can be evaluated
+	 * repeatedly with different values of the variables.
+	 * 
+	 * @param input
+	 *            The input to be compiled.
+	 * @param variables
+	 *            The names of the variables, the slot of a variable is its
+	 *            index. Null if the variables get their slots in the order of
+	 *            their first occurrence.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the input is malformed or uses a variable that is not
+	 *             declared.
 	 */
-	private void parser() {
-		System.out.println("\nParsing...");
-		parseRoot = new ParseTree("S", "");
-		Stack<ParseTree> stack = new Stack<ParseTree>();
-		stack.push(new ParseTree("$", ""));
-		stack.push(parseRoot);
+	public CompiledExpression compile(CharSequence input, String[] variables) {
+		return compile(input, variables, null, true);
+	}
 
-		while (stack.size() != 0) {
-			String stackType = stack.peek().getType();
-			String tokenType = lexerTokens.get(0).getType();
+	/**
+	 * Compiles the input without optimizing it, for the evaluation in decimal
+	 * by a {@link DecimalEvaluator}: the optimizer folds the constants in
+	 * double. The exact decimal values of the numbers are kept too.
+	 * 
+	 * @param input
+	 *            The input to be compiled.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the input is malformed or uses a variable that is not
+	 *             declared.
+	 */
+	public CompiledExpression compileUnoptimized(CharSequence input,
+			String[] variables) {
+		return compile(input, variables, null, false);
+	}
 
-			System.out.println("\nStack:" + stack);
-			System.out.println("ParseTree:" + parseRoot);
-			printLexerOutput();
+	/**
+	 * Compiles the input into a graph, in which the repeated subexpressions
+	 * are shared, so each of them is computed once per evaluation.
+	 * 
+	 * @param input
+	 *            The input to be compiled.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @return The optimized expression as a graph.
+	 * @throws EvaluationException
+	 *             If the input is malformed or uses a variable that is not
+	 *             declared.
+	 */
+	public ExpressionDag compileShared(CharSequence input, String[] variables) {
+		return hashConser.share(compile(input, variables, null, true));
+	}
 
-			if (grammar.isTerminal(stackType)) {
-				if (stackType.equals(tokenType)) {
-					stack.peek().setValue(lexerTokens.get(0).getValue());
-					stack.pop();
-					lexerTokens.remove(0);
-				} else {
-					controller.errorOccurred("Malformed input at token: \""
-							+ tokenType + "\" expected: \"" + stackType + "\"");
-					errorOccurred = true;
-					return;
-				}
-			} else {
-				int applyRuleIndex = grammar.getApplyRuleIndex(stackType,
-						tokenType);
-				if (applyRuleIndex == -1) {
-					if (grammar.isRemoveable(stack.peek().getType())) {
-						stack.pop();
-					} else {
-						controller.errorOccurred("Malformed input at token: \""
-								+ tokenType + "\" expected: \"" + stackType
-								+ "\"");
-						errorOccurred = true;
-						return;
-					}
-				} else {
-					ParseTree outGoing = stack.pop();
-					Rule applyRule = grammar.getRuleByIndex(applyRuleIndex);
-					String[] rightPossibilities = applyRule.getRight().split(
-							"\\|");
-					boolean wasTerminal = false;
-					for (String tokens : rightPossibilities) {
-						String[] symbols = tokens.split(" ");
-						if (symbols[0].equals(tokenType)) {
-							if (tokenType.equals("$"))
-								break;
-							wasTerminal = true;
-							for (int i = 0; i < symbols.length; i++) {
-								ParseTree child = new ParseTree(symbols[i], "");
-								outGoing.getChildren().add(child);
-							}
-							break;
-						}
-					}
-					if (!wasTerminal) {
-						for (String tokens : rightPossibilities) {
-							String[] symbols = tokens.split(" ");
-							if (!grammar.isTerminal(symbols[0])) {
-								for (int i = 0; i < symbols.length; i++) {
-									ParseTree child = new ParseTree(symbols[i],
-											"");
-									outGoing.getChildren().add(child);
-								}
-								break;
-							}
-						}
-					}
-					for (int i = outGoing.getChildren().size() - 1; i >= 0; i--) {
-						stack.push(outGoing.getChildren().get(i));
-					}
-				}
-			}
-		}
+	/**
+	 * Compiles the input within a time budget.
+	 * 
+	 * @param input
+	 *            The input to be compiled.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @param optimize
+	 *            True, if the compiled expression is optimized, false if it
+	 *            keeps the exact decimal values of the numbers.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the input is malformed or the budget is exhausted.
+	 */
+	private CompiledExpression compile(CharSequence input, String[] variables,
+			TimeBudget budget, boolean optimize) {
+		/* lexer and parser */
+		ParseTree parseRoot = parser(input, budget);
+		if (optimize)
+			return compile(parseRoot, variables, budget);
+		/* compiler, reading the numbers again from the input */
+		CompiledExpression program = compiler.compile(parseRoot, variables,
+				budget, input);
+		trace.compiled(program);
+		return program;
 	}
 
 	/**
-	 * The evealuator method. Recursively evaluates the parse tree. The
-	 * operators are shifted for postfix notation.
+	 * Compiles and optimizes a parse tree.
 	 * 
-	 * @param root
+	 * @param parseRoot
 	 *            Root of the parse tree.
-	 * @param __A
-	 *            Last multiplication operator.
-	 * @param __B
-	 *            Last addition operator.
+	 * @param variables
+	 *            The names of the variables, null if the variables get their
+	 *            slots in the order of their first occurrence.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The compiled expression.
+	 * @throws EvaluationException
+	 *             If the budget is exhausted.
 	 */
-	private void evaluator(ParseTree root, String __A, String __B) {
-		if (errorOccurred)
-			return;
-		System.out.println("evalStack: " + evalStack);
-
-		String rootType = root.getType();
-		if (rootType.equals("double")) {
-			evalStack.push((Double) root.getValue());
-			return;
-		}
-
-		if (rootType.equals("EXP")) {
-			if (root.getChildren().size() == 1) {
-				evaluator(root.getChildren().get(0), null, null);
-			} else {
-				evaluator(root.getChildren().get(1), null, null);
-				if (root.getChildren().get(0).getType().equals("-")) {
-					evalStack.push(evalStack.pop() * -1);
-				}
-			}
-			return;
-		}
+	private CompiledExpression compile(ParseTree parseRoot,
+			String[] variables, TimeBudget budget) {
+		/* compiler */
+		CompiledExpression program = optimizer.optimize(compiler.compile(
+				parseRoot, variables, budget));
+		trace.compiled(program);
+		return program;
+	}
 
-		if (rootType.equals("__B")) {
-			if (__B != null) {
-				double a = evalStack.pop();
-				double b = evalStack.pop();
-				if (__B.equals("+"))
-					evalStack.push(b + a);
-				if (__B.equals("-"))
-					evalStack.push(b - a);
-				__B = null;
-			}
-			if (root.getChildren().size() == 2) {
-				__B = root.getChildren().get(0).getType();
-				evaluator(root.getChildren().get(1), __A, __B);
-				return;
-			}
-		}
+	/**
+	 * 
+	 * @return The grammar of the interpreter.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
 
-		if (rootType.equals("__A")) {
-			if (__A != null) {
-				double a = evalStack.pop();
-				double b = evalStack.pop();
-				if (__A.equals("*"))
-					evalStack.push(b * a);
-				if (__A.equals("/")) {
-					if (a == 0.0) {
-						errorOccurred = true;
-						controller.errorOccurred("Divide by zero.");
-						return;
-					}
-					evalStack.push(b / a);
-				}
-				if (__A.equals("%")) {
-					if (a == 0.0) {
-						errorOccurred = true;
-						controller.errorOccurred("Divide by zero.");
-						return;
-					}
-					evalStack.push(b % a);
-				}
-				__A = null;
-			}
-			if (root.getChildren().size() == 2) {
-				__A = root.getChildren().get(0).getType();
-				evaluator(root.getChildren().get(1), __A, __B);
-				return;
-			}
-		}
+	/**
+	 * The parser method. Pulls the tokens from the lexer while it generates
+	 * the parse tree.
+	 * 
+	 * @param input
+	 *            The input to be parsed.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return Root of the parse tree.
+	 * @throws EvaluationException
+	 *             If the input is malformed.
+	 */
+	private ParseTree parser(CharSequence input, TimeBudget budget) {
+		return parser.parse(lexer.open(input), trace, budget);
+	}
 
-		for (ParseTree child : root.getChildren()) {
-			evaluator(child, __A, __B);
-		}
+	/**
+	 * The evaluator method. Runs the compiled program.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the program.
+	 * @throws EvaluationException
+	 *             On division by zero.
+	 */
+	private double evaluator(CompiledExpression program, TimeBudget budget) {
+		return program.evaluate(budget);
 	}
 }
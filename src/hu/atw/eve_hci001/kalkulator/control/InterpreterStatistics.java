@@ -0,0 +1,203 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.LatencyHistogram;
+import hu.atw.eve_hci001.kalkulator.model.LatencySnapshot;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the executions of the
+ * {@link Interpreter}s, per stage and per outcome. Recording costs a few
+ * atomic increments, so it is always on; the statistics are published as an
+ * MXBean when {@link #register()} is called.
+ * 
+ * The lexer is pulled by the parser, so lexing is measured as a part of the
+ * parse stage.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class InterpreterStatistics implements InterpreterStatisticsMXBean {
+	/** Name of the MXBean. */
+	public static final String OBJECT_NAME = "hu.atw.eve_hci001.kalkulator"
+			+ ":type=InterpreterStatistics";
+
+	private static final String[] STAGES = { "parse", "compile", "evaluate" };
+	/** Outcomes, and the prefixes of the error messages belonging to them. */
+	private static final String[] OUTCOMES = { "ok", "divide by zero",
+			"malformed input", "lexical error", "variable error",
+			"time limit", "other error" };
+	private static final String[][] PREFIXES = { {}, { "Divide by zero." },
+			{ "Malformed input" },
+			{ "Unexpected character", "Wrong decimal point" },
+			{ "Unbound variable", "Unknown variable" },
+			{ "Time limit exceeded.", "Evaluation cancelled." }, {} };
+	private static final int OK = 0;
+	private static final int OTHER_ERROR = OUTCOMES.length - 1;
+
+	private static final InterpreterStatistics DEFAULT =
+			new InterpreterStatistics();
+
+	private final LatencyHistogram[] stages;
+	private final LatencyHistogram[] outcomes;
+	private final LongAdder parseTreeNodes;
+
+	/**
+	 * Constructor.
+	 */
+	public InterpreterStatistics() {
+		stages = new LatencyHistogram[STAGES.length];
+		for (int i = 0; i < stages.length; i++) {
+			stages[i] = new LatencyHistogram();
+		}
+		outcomes = new LatencyHistogram[OUTCOMES.length];
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new LatencyHistogram();
+		}
+		parseTreeNodes = new LongAdder();
+	}
+
+	/**
+	 * 
+	 * @return The statistics used by the interpreters by default.
+	 */
+	public static InterpreterStatistics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Registers the statistics in the platform MBean server under
+	 * {@link #OBJECT_NAME}, if it is not registered yet.
+	 * 
+	 * @throws IllegalStateException
+	 *             If the registration fails.
+	 */
+	public void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+				server.registerMBean(this, name);
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Records an execution.
+	 * 
+	 * @param parse
+	 *            Duration of the lexing and parsing in nanoseconds, -1 if the
+	 *            stage was not reached.
+	 * @param compile
+	 *            Duration of the compilation and optimization, -1 if it was
+	 *            not reached.
+	 * @param evaluate
+	 *            Duration of the evaluation, -1 if it was not reached.
+	 * @param nodes
+	 *            Size of the parse tree, 0 if it was not built.
+	 * @param result
+	 *            The outcome of the execution.
+	 */
+	void record(long parse, long compile, long evaluate, int nodes,
+			EvaluationResult result) {
+		long total = 0;
+		long[] durations = { parse, compile, evaluate };
+		for (int i = 0; i < durations.length; i++) {
+			if (durations[i] >= 0) {
+				stages[i].record(durations[i]);
+				total += durations[i];
+			}
+		}
+		parseTreeNodes.add(nodes);
+		outcomes[outcomeOf(result)].record(total);
+	}
+
+	/**
+	 * Classifies the outcome of an execution.
+	 * 
+	 * @param result
+	 *            The outcome.
+	 * @return Index of the outcome.
+	 */
+	private static int outcomeOf(EvaluationResult result) {
+		if (!result.isError())
+			return OK;
+		String error = result.getError();
+		for (int i = 0; i < PREFIXES.length; i++) {
+			for (String prefix : PREFIXES[i]) {
+				if (error.startsWith(prefix))
+					return i;
+			}
+		}
+		return OTHER_ERROR;
+	}
+
+	@Override
+	public long getExecutions() {
+		long executions = 0;
+		for (LatencyHistogram outcome : outcomes) {
+			executions += outcome.getCount();
+		}
+		return executions;
+	}
+
+	@Override
+	public long getErrors() {
+		return getExecutions() - outcomes[OK].getCount();
+	}
+
+	@Override
+	public long getParseTreeNodes() {
+		return parseTreeNodes.sum();
+	}
+
+	@Override
+	public Map<String, LatencySnapshot> getStageLatencies() {
+		return snapshots(STAGES, stages);
+	}
+
+	@Override
+	public Map<String, LatencySnapshot> getOutcomeLatencies() {
+		return snapshots(OUTCOMES, outcomes);
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram stage : stages) {
+			stage.reset();
+		}
+		for (LatencyHistogram outcome : outcomes) {
+			outcome.reset();
+		}
+		parseTreeNodes.reset();
+	}
+
+	/**
+	 * Takes snapshots of histograms.
+	 * 
+	 * @param names
+	 *            The names of the histograms.
+	 * @param histograms
+	 *            The histograms.
+	 * @return The snapshots by name, in the order of the names.
+	 */
+	private static Map<String, LatencySnapshot> snapshots(String[] names,
+			LatencyHistogram[] histograms) {
+		Map<String, LatencySnapshot> snapshots;
+		snapshots = new LinkedHashMap<String, LatencySnapshot>();
+		for (int i = 0; i < names.length; i++) {
+			snapshots.put(names[i], histograms[i].snapshot());
+		}
+		return snapshots;
+	}
+}
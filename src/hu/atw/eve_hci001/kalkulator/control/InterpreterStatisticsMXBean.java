@@ -0,0 +1,53 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.LatencySnapshot;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link InterpreterStatistics}, readable with
+ * any JMX client (jconsole, VisualVM). The latencies are in nanoseconds.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public interface InterpreterStatisticsMXBean {
+
+	/**
+	 * 
+	 * @return Number of the executions.
+	 */
+	long getExecutions();
+
+	/**
+	 * 
+	 * @return Number of the executions that ended with an error.
+	 */
+	long getErrors();
+
+	/**
+	 * 
+	 * @return Number of the parse tree nodes built by the executions.
+	 */
+	long getParseTreeNodes();
+
+	/**
+	 * 
+	 * @return The latencies of the stages ("parse", "compile", "evaluate"),
+	 *         by stage.
+	 */
+	Map<String, LatencySnapshot> getStageLatencies();
+
+	/**
+	 * 
+	 * @return The latencies of the whole executions, by outcome ("ok",
+	 *         "divide by zero", "malformed input" and so on).
+	 */
+	Map<String, LatencySnapshot> getOutcomeLatencies();
+
+	/**
+	 * Clears the counters and the histograms.
+	 */
+	void reset();
+}
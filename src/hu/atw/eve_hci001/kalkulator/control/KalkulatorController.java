@@ -1,9 +1,22 @@
 package hu.atw.eve_hci001.kalkulator.control;
 
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.TimeBudget;
 import hu.atw.eve_hci001.kalkulator.view.KalkulatorGUI;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
 /**
- * Controller class for the Kalkulator.
+ * Controller class for the Kalkulator. The inputs are interpreted on a
+ * background thread, so the window stays responsive: a new input cancels the
+ * interpretation of the previous one, every interpretation has a time limit,
+ * and the results are passed back to the event dispatch thread.
  * 
  * @author László Ádám
  *
@@ -12,24 +25,115 @@ import hu.atw.eve_hci001.kalkulator.view.KalkulatorGUI;
 public class KalkulatorController {
 	private KalkulatorGUI gui;
 	private Interpreter interpreter;
+	private IncrementalInterpreter liveInterpreter;
+	private ExecutorService executor;
+	private long timeLimit;
+	/** The interpretation in progress, null if there is none. */
+	private Future<?> pending;
+	/** Number of the latest input, only its result is shown. */
+	private int generation;
 
 	/**
-	 * Constructor.
+	 * Constructor. The steps of the interpretation are printed if the
+	 * kalkulator.trace system property is true. The time limit of an
+	 * interpretation is read from the kalkulator.timeLimit system property,
+	 * in milliseconds, 5000 by default.
 	 */
 	public KalkulatorController() {
-		interpreter = new Interpreter(this);
+		ParseTraceListener trace = ParseTraceListener.NONE;
+		if (Boolean.getBoolean("kalkulator.trace"))
+			trace = new VerboseParseTraceListener(System.out);
+		Grammar grammar = new Grammar();
+		interpreter = new Interpreter(grammar, trace);
+		liveInterpreter = new IncrementalInterpreter(grammar);
+		timeLimit = Long.getLong("kalkulator.timeLimit", 5000);
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Kalkulator interpreter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		gui = new KalkulatorGUI(this);
 
 	}
 
 	/**
-	 * Sets the input for interpreting.
+	 * Sets the input for interpreting. Must be called on the event dispatch
+	 * thread.
 	 * 
 	 * @param input
 	 *            The expression to be interpreted.
 	 */
 	public void setInput(String input) {
-		interpreter.exec(input);
+		submit(input, false);
+	}
+
+	/**
+	 * Evaluates the input while it is being edited. Only the edited part of
+	 * the input is interpreted again, and nothing is traced. Must be called
+	 * on the event dispatch thread.
+	 * 
+	 * @param input
+	 *            The current content of the input field.
+	 */
+	public void inputEdited(String input) {
+		if (input.trim().isEmpty()) {
+			cancelPending();
+			gui.setOutput("");
+			return;
+		}
+		submit(input, true);
+	}
+
+	/**
+	 * Starts the interpretation of an input on the background thread,
+	 * cancelling the previous one.
+	 * 
+	 * @param input
+	 *            The expression to be interpreted.
+	 * @param live
+	 *            True if the input is being edited.
+	 */
+	private void submit(final String input, final boolean live) {
+		cancelPending();
+		final int request = generation;
+		pending = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				TimeBudget budget = new TimeBudget(timeLimit);
+				final EvaluationResult result;
+				if (live)
+					result = liveInterpreter.exec(input, budget);
+				else
+					result = interpreter.exec(input, budget);
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						/* a newer input supersedes this result */
+						if (request != generation)
+							return;
+						pending = null;
+						if (result.isError())
+							errorOccurred(result.getError());
+						else
+							setOutput(result.getValue());
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Cancels the interpretation in progress, its result will not be shown.
+	 */
+	private void cancelPending() {
+		generation++;
+		if (pending != null) {
+			pending.cancel(true);
+			pending = null;
+		}
 	}
 
 	/**
@@ -0,0 +1,379 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.TokenBuffer;
+import hu.atw.eve_hci001.kalkulator.model.TokenSource;
+
+import java.math.BigDecimal;
+
+/**
+ * Lexer for the calculator. Classifies the characters with a lookup table and
+ * parses the numbers without creating strings. Identifiers (variable names)
+ * start with a letter or an underscore, followed by letters, digits and
+ * underscores. The tokens can be pulled one by one through a
+ * {@link TokenSource}, or collected into a reused {@link TokenBuffer}. Only
+ * reads its tables, so it can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class Lexer {
+	private static final byte OTHER = 0;
+	private static final byte DIGIT = 1;
+	private static final byte POINT = 2;
+	private static final byte WHITESPACE = 3;
+	private static final byte OPERATOR = 4;
+	private static final byte LETTER = 5;
+	/** Powers of ten that are exactly representable as a double. */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4,
+			1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+			1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	/** Longest mantissa that is exactly representable as a double. */
+	private static final int MAX_EXACT_DIGITS = 15;
+
+	private final byte[] charClasses;
+	private final byte[] operatorKinds;
+	private final int doubleKind;
+	private final int idKind;
+	private final int endKind;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grammar
+	 *            The grammar, the operators and the token kinds come from it.
+	 */
+	public Lexer(Grammar grammar) {
+		charClasses = new byte[128];
+		operatorKinds = new byte[128];
+		for (char ch = 0; ch < 128; ch++) {
+			if (ch >= '0' && ch <= '9') {
+				charClasses[ch] = DIGIT;
+			} else if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')
+					|| ch == '_') {
+				charClasses[ch] = LETTER;
+			} else if (ch == '.') {
+				charClasses[ch] = POINT;
+			} else if (Character.isWhitespace(ch)) {
+				charClasses[ch] = WHITESPACE;
+			} else if (grammar.isOperator(ch)) {
+				charClasses[ch] = OPERATOR;
+				operatorKinds[ch] = (byte) grammar.getSymbolId(String
+						.valueOf(ch));
+			}
+		}
+		doubleKind = grammar.getSymbolId("double");
+		idKind = grammar.getSymbolId("id");
+		endKind = grammar.getSymbolId("$");
+	}
+
+	/**
+	 * Generates the lexer tokens of the input. The last token is always the
+	 * end of the input ("$").
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param tokens
+	 *            The buffer receiving the tokens, it is cleared first.
+	 * @throws EvaluationException
+	 *             If the input contains a malformed number or an unexpected
+	 *             character.
+	 */
+	public void tokenize(CharSequence input, TokenBuffer tokens) {
+		tokens.clear();
+		TokenSource source = open(input);
+		while (true) {
+			tokens.add(source.kind(), source.value(), source.name(),
+					source.offset());
+			if (source.kind() == endKind)
+				break;
+			source.advance();
+		}
+	}
+
+	/**
+	 * Opens a lazy token stream over the input. A token is only scanned when
+	 * the cursor reaches it, so lexing and parsing happen in the same pass.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @return The cursor, positioned at the first token.
+	 * @throws EvaluationException
+	 *             If the first token is malformed.
+	 */
+	public TokenSource open(CharSequence input) {
+		return open(input, 0);
+	}
+
+	/**
+	 * Opens a lazy token stream over the input, starting at an offset. The
+	 * lexer keeps no state between tokens, so lexing from the start of a
+	 * token gives the same tokens as lexing the whole input.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param offset
+	 *            Offset of the first character to be lexed.
+	 * @return The cursor, positioned at the first token after the offset.
+	 * @throws EvaluationException
+	 *             If the first token is malformed.
+	 */
+	public TokenSource open(CharSequence input, int offset) {
+		Cursor cursor = new Cursor(input, offset);
+		cursor.advance();
+		return cursor;
+	}
+
+	/**
+	 * Lazy token stream over an input.
+	 */
+	private class Cursor implements TokenSource {
+		private final CharSequence input;
+		private int position;
+		private int kind;
+		private double value;
+		private String name;
+		private int offset;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param input
+		 *            The input.
+		 * @param position
+		 *            Offset of the first character to be lexed.
+		 */
+		Cursor(CharSequence input, int position) {
+			this.input = input;
+			this.position = position;
+		}
+
+		@Override
+		public int kind() {
+			return kind;
+		}
+
+		@Override
+		public double value() {
+			return value;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public int offset() {
+			return offset;
+		}
+
+		@Override
+		public void advance() {
+			int length = input.length();
+			int i = position;
+			while (i < length) {
+				char ch = input.charAt(i);
+				byte charClass = ch < 128 ? charClasses[ch] : OTHER;
+				if (charClass == DIGIT) {
+					position = scanNumber(input, i);
+					set(doubleKind, parseNumber(input, i, position), i);
+					return;
+				} else if (charClass == LETTER) {
+					position = scanIdentifier(input, i);
+					set(idKind, 0.0, i);
+					name = input.subSequence(i, position).toString();
+					return;
+				} else if (charClass == OPERATOR) {
+					position = i + 1;
+					set(operatorKinds[ch], 0.0, i);
+					return;
+				} else if (charClass == WHITESPACE
+						|| Character.isWhitespace(ch)) {
+					i++;
+				} else {
+					throw new EvaluationException("Unexpected character: \""
+							+ ch + "\"", i);
+				}
+			}
+			position = length;
+			set(endKind, 0.0, length);
+		}
+
+		/**
+		 * Sets the current token.
+		 * 
+		 * @param kind
+		 *            Id of the terminal symbol of the token.
+		 * @param value
+		 *            Value of the token.
+		 * @param offset
+		 *            Offset of the token in the input.
+		 */
+		private void set(int kind, double value, int offset) {
+			this.kind = kind;
+			this.value = value;
+			this.name = null;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * Finds the end of a number: digits, optionally followed by a decimal
+	 * point and more digits.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param i
+	 *            Index of the first digit.
+	 * @return Index of the first character after the number.
+	 * @throws EvaluationException
+	 *             If the decimal point is not followed by a digit or the
+	 *             number has more decimal points, with the offset of the
+	 *             number.
+	 */
+	private int scanNumber(CharSequence input, int i) {
+		int length = input.length();
+		int start = i;
+		i = skipDigits(input, i);
+		if (i < length && input.charAt(i) == '.') {
+			int fraction = i + 1;
+			i = skipDigits(input, fraction);
+			if (i == fraction || (i < length && input.charAt(i) == '.'))
+				throw new EvaluationException("Wrong decimal point placement.",
+						start);
+		}
+		return i;
+	}
+
+	/**
+	 * Reads the exact decimal value of a number, which the tokens only have
+	 * as the nearest double.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param offset
+	 *            Offset of the first digit of a well-formed number.
+	 * @return The value of the number, with the digits as written.
+	 */
+	public BigDecimal decimal(CharSequence input, int offset) {
+		int end = scanNumber(input, offset);
+		return new BigDecimal(input.subSequence(offset, end).toString());
+	}
+
+	/**
+	 * Finds the end of an identifier.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param i
+	 *            Index of the first letter.
+	 * @return Index of the first character after the identifier.
+	 */
+	private int scanIdentifier(CharSequence input, int i) {
+		int length = input.length();
+		for (i++; i < length; i++) {
+			char ch = input.charAt(i);
+			if (ch >= 128
+					|| (charClasses[ch] != LETTER && charClasses[ch] != DIGIT))
+				break;
+		}
+		return i;
+	}
+
+	/**
+	 * Skips the digits.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param i
+	 *            Index of the first character to check.
+	 * @return Index of the first character that is not a digit.
+	 */
+	private int skipDigits(CharSequence input, int i) {
+		int length = input.length();
+		while (i < length) {
+			char ch = input.charAt(i);
+			if (ch >= 128 || charClasses[ch] != DIGIT)
+				break;
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Parses a number already checked by {@link #scanNumber}. The value is
+	 * correctly rounded: when the significant digits fit into 15 digits and
+	 * the power of ten is exact, a single multiplication or division gives
+	 * the nearest double. Longer numbers are rare and are passed to
+	 * {@link Double#parseDouble(String)}.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param start
+	 *            Index of the first digit.
+	 * @param end
+	 *            Index of the first character after the number.
+	 * @return The value of the number.
+	 */
+	private double parseNumber(CharSequence input, int start, int end) {
+		long mantissa = 0;
+		int digits = 0;
+		int pendingZeros = 0;
+		int exponent = 0;
+		boolean fraction = false;
+		for (int i = start; i < end; i++) {
+			char ch = input.charAt(i);
+			if (ch == '.') {
+				fraction = true;
+				continue;
+			}
+			if (fraction)
+				exponent--;
+			if (ch == '0') {
+				/* zeros are only multiplied in before a nonzero digit */
+				pendingZeros++;
+				continue;
+			}
+			if (mantissa == 0) {
+				digits = 1;
+			} else {
+				digits += pendingZeros + 1;
+				if (digits > MAX_EXACT_DIGITS)
+					return slowParseNumber(input, start, end);
+				for (; pendingZeros > 0; pendingZeros--)
+					mantissa *= 10;
+				mantissa *= 10;
+			}
+			pendingZeros = 0;
+			mantissa += ch - '0';
+		}
+		if (mantissa == 0)
+			return 0.0;
+		exponent += pendingZeros;
+		if (exponent < 0) {
+			if (-exponent < POWERS_OF_TEN.length)
+				return mantissa / POWERS_OF_TEN[-exponent];
+		} else if (exponent < POWERS_OF_TEN.length) {
+			return mantissa * POWERS_OF_TEN[exponent];
+		}
+		return slowParseNumber(input, start, end);
+	}
+
+	/**
+	 * Parses a number that does not fit into the fast path.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param start
+	 *            Index of the first digit.
+	 * @param end
+	 *            Index of the first character after the number.
+	 * @return The value of the number.
+	 */
+	private double slowParseNumber(CharSequence input, int start, int end) {
+		return Double.parseDouble(input.subSequence(start, end).toString());
+	}
+}
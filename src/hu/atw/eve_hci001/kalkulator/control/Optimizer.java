@@ -0,0 +1,212 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Simplifies a compiled expression before it is evaluated. Runs through the
+ * postfix code once while tracking which operands on the stack are constants:
+ * operators with constant operands are folded into a single constant, and
+ * operations that can not change their operand (*1, /1, -0, double negation)
+ * are removed. Only rewrites that give bit for bit the same result are done:
+ * x+0 is kept, because it turns -0 into 0, and division by a constant zero is
+ * kept, so it is still reported when the expression is evaluated. Has no
+ * state, so it can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class Optimizer {
+
+	/**
+	 * Optimizes a compiled expression.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @return The optimized expression.
+	 */
+	public CompiledExpression optimize(CompiledExpression program) {
+		int[] code = program.getCode();
+		double[] constants = program.getConstants();
+		int length = code.length;
+		/*
+		 * the output: the operand of a push is kept as a value until the end,
+		 * a load is copied with its slot
+		 */
+		int[] opcodes = new int[length];
+		double[] values = new double[length];
+		int size = 0;
+		/* the operands on the stack: where their code starts, their value */
+		int[] starts = new int[program.getMaxStack()];
+		boolean[] constant = new boolean[program.getMaxStack()];
+		int sp = -1;
+
+		for (int pc = 0; pc < length; pc++) {
+			int opcode = code[pc] & CompiledExpression.OPCODE_MASK;
+			if (opcode == CompiledExpression.PUSH) {
+				sp++;
+				starts[sp] = size;
+				constant[sp] = true;
+				opcodes[size] = CompiledExpression.PUSH;
+				values[size++] = constants[code[pc]
+						>>> CompiledExpression.OPCODE_BITS];
+			} else if (opcode == CompiledExpression.LOAD) {
+				sp++;
+				starts[sp] = size;
+				constant[sp] = false;
+				opcodes[size++] = code[pc];
+			} else if (opcode == CompiledExpression.NEG) {
+				if (constant[sp]) {
+					values[size - 1] = -values[size - 1];
+				} else if (opcodes[size - 1] == CompiledExpression.NEG) {
+					size--;
+				} else {
+					opcodes[size++] = CompiledExpression.NEG;
+				}
+			} else {
+				int b = sp--;
+				int a = sp;
+				if (constant[a] && constant[b]
+						&& !isDivisionByZero(opcode, values[starts[b]])) {
+					double value = fold(opcode, values[starts[a]],
+							values[starts[b]]);
+					size = starts[a];
+					opcodes[size] = CompiledExpression.PUSH;
+					values[size++] = value;
+				} else if (constant[b] && isRightIdentity(opcode,
+						values[starts[b]])) {
+					size = starts[b];
+				} else if (constant[a] && opcode == CompiledExpression.MUL
+						&& values[starts[a]] == 1.0) {
+					/* 1*x: drop the push of the 1 */
+					System.arraycopy(opcodes, starts[b], opcodes, starts[a],
+							size - starts[b]);
+					System.arraycopy(values, starts[b], values, starts[a], size
+							- starts[b]);
+					size -= starts[b] - starts[a];
+					constant[a] = false;
+				} else {
+					opcodes[size++] = opcode;
+					constant[a] = false;
+				}
+			}
+		}
+		return assemble(opcodes, values, size, program.getVariables());
+	}
+
+	/**
+	 * Determines if an operation would fail with division by zero.
+	 * 
+	 * @param opcode
+	 *            The operator.
+	 * @param b
+	 *            The right operand.
+	 * @return True, if it's a division or a modulo by zero.
+	 */
+	private static boolean isDivisionByZero(int opcode, double b) {
+		return (opcode == CompiledExpression.DIV
+				|| opcode == CompiledExpression.MOD) && b == 0.0;
+	}
+
+	/**
+	 * Determines if a constant right operand leaves the left operand
+	 * unchanged.
+	 * 
+	 * @param opcode
+	 *            The operator.
+	 * @param b
+	 *            The right operand.
+	 * @return True for x*1, x/1 and x-0.
+	 */
+	private static boolean isRightIdentity(int opcode, double b) {
+		switch (opcode) {
+		case CompiledExpression.MUL:
+		case CompiledExpression.DIV:
+			return b == 1.0;
+		case CompiledExpression.SUB:
+			/* x-(+0) is x even for -0, x-(-0) is not */
+			return Double.doubleToRawLongBits(b) == 0L;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Computes an operator the same way as the evaluator does.
+	 * 
+	 * @param opcode
+	 *            The operator.
+	 * @param a
+	 *            The left operand.
+	 * @param b
+	 *            The right operand.
+	 * @return The result.
+	 */
+	private static double fold(int opcode, double a, double b) {
+		switch (opcode) {
+		case CompiledExpression.ADD:
+			return a + b;
+		case CompiledExpression.SUB:
+			return a - b;
+		case CompiledExpression.MUL:
+			return a * b;
+		case CompiledExpression.DIV:
+			return a / b;
+		default:
+			return a % b;
+		}
+	}
+
+	/**
+	 * Builds the optimized expression: collects the constants into a pool,
+	 * each distinct value once, and computes the stack depth.
+	 * 
+	 * @param opcodes
+	 *            The opcodes.
+	 * @param values
+	 *            The operands of the pushes.
+	 * @param size
+	 *            The number of the instructions.
+	 * @param variables
+	 *            The names of the variables.
+	 * @return The optimized expression.
+	 */
+	private static CompiledExpression assemble(int[] opcodes, double[] values,
+			int size, String[] variables) {
+		int[] code = new int[size];
+		double[] constants = new double[size];
+		int constantsSize = 0;
+		HashMap<Long, Integer> indexes = new HashMap<Long, Integer>();
+		int stackSize = 0;
+		int maxStack = 0;
+		for (int i = 0; i < size; i++) {
+			int opcode = opcodes[i] & CompiledExpression.OPCODE_MASK;
+			if (opcode == CompiledExpression.PUSH) {
+				Long bits = Double.doubleToRawLongBits(values[i]);
+				Integer index = indexes.get(bits);
+				if (index == null) {
+					index = constantsSize;
+					indexes.put(bits, index);
+					constants[constantsSize++] = values[i];
+				}
+				code[i] = CompiledExpression.PUSH
+						| index << CompiledExpression.OPCODE_BITS;
+				if (++stackSize > maxStack)
+					maxStack = stackSize;
+			} else if (opcode == CompiledExpression.LOAD) {
+				code[i] = opcodes[i];
+				if (++stackSize > maxStack)
+					maxStack = stackSize;
+			} else {
+				code[i] = opcodes[i];
+				if (opcode != CompiledExpression.NEG)
+					stackSize--;
+			}
+		}
+		return new CompiledExpression(code, Arrays.copyOf(constants,
+				constantsSize), variables, maxStack);
+	}
+}
@@ -0,0 +1,96 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.ParseTree;
+
+/**
+ * Receives the steps of the interpretation for debugging purposes. The
+ * arguments are passed as they are, an implementation should only format them
+ * when it really prints something.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public interface ParseTraceListener {
+	/**
+	 * Listener ignoring every step. Tracing costs nothing with it.
+	 */
+	ParseTraceListener NONE = new ParseTraceListener() {
+		@Override
+		public void parsingTable(Grammar grammar) {
+		}
+
+		@Override
+		public void token(Grammar grammar, int kind, double value, int offset) {
+		}
+
+		@Override
+		public void parserStep(Grammar grammar, int[] symbolStack, int top,
+				ParseTree parseRoot) {
+		}
+
+		@Override
+		public void compiled(CompiledExpression program) {
+		}
+
+		@Override
+		public void evaluated(EvaluationResult result) {
+		}
+	};
+
+	/**
+	 * Called when an interpreter is created.
+	 * 
+	 * @param grammar
+	 *            The grammar of the interpreter.
+	 */
+	void parsingTable(Grammar grammar);
+
+	/**
+	 * Called for every lexer token.
+	 * 
+	 * @param grammar
+	 *            The grammar, it names the kind of the token.
+	 * @param kind
+	 *            Id of the terminal symbol of the token.
+	 * @param value
+	 *            Value of the token.
+	 * @param offset
+	 *            Offset of the token in the input.
+	 */
+	void token(Grammar grammar, int kind, double value, int offset);
+
+	/**
+	 * Called before every step of the parser.
+	 * 
+	 * @param grammar
+	 *            The grammar, it names the symbols on the stack.
+	 * @param symbolStack
+	 *            The symbol ids on the parser stack. Must not be modified.
+	 * @param top
+	 *            Index of the top of the stack.
+	 * @param parseRoot
+	 *            Root of the parse tree built so far.
+	 */
+	void parserStep(Grammar grammar, int[] symbolStack, int top,
+			ParseTree parseRoot);
+
+	/**
+	 * Called when the parse tree has been compiled.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 */
+	void compiled(CompiledExpression program);
+
+	/**
+	 * Called at the end of every execution.
+	 * 
+	 * @param result
+	 *            The outcome of the execution.
+	 */
+	void evaluated(EvaluationResult result);
+}
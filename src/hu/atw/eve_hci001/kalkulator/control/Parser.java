@@ -0,0 +1,146 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.ParseTree;
+import hu.atw.eve_hci001.kalkulator.model.TimeBudget;
+import hu.atw.eve_hci001.kalkulator.model.TokenSource;
+
+import java.util.Arrays;
+
+/**
+ * LL(1) parser of the calculator. Pulls the tokens from a
+ * {@link TokenSource} one by one, so the input is lexed and parsed in a
+ * single pass, in linear time. Only reads the grammar, so it can be shared
+ * between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class Parser {
+	private final Grammar grammar;
+	private final int doubleSymbol;
+	private final int idSymbol;
+	private final int dollarSymbol;
+	private final int startSymbol;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grammar
+	 *            The grammar.
+	 */
+	public Parser(Grammar grammar) {
+		this.grammar = grammar;
+		doubleSymbol = grammar.getSymbolId("double");
+		idSymbol = grammar.getSymbolId("id");
+		dollarSymbol = grammar.getSymbolId("$");
+		startSymbol = grammar.getSymbolId("S");
+	}
+
+	/**
+	 * Generates the parse tree. The stack holds the nodes to be expanded
+	 * together with their symbol ids, the productions come from the
+	 * precomputed table of the grammar. The nodes are appended to the arrays
+	 * of the tree as the productions are applied.
+	 * 
+	 * @param tokens
+	 *            The tokens of the input.
+	 * @param trace
+	 *            Receives the consumed tokens and the parser steps.
+	 * @return Root of the parse tree.
+	 * @throws EvaluationException
+	 *             If the input is malformed.
+	 */
+	public ParseTree parse(TokenSource tokens, ParseTraceListener trace) {
+		return parse(tokens, trace, null);
+	}
+
+	/**
+	 * Generates the parse tree within a time budget. The tokens are lexed by
+	 * the parser loop, so the budget covers the lexer too.
+	 * 
+	 * @param tokens
+	 *            The tokens of the input.
+	 * @param trace
+	 *            Receives the consumed tokens and the parser steps.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return Root of the parse tree.
+	 * @throws EvaluationException
+	 *             If the input is malformed or the budget is exhausted.
+	 */
+	public ParseTree parse(TokenSource tokens, ParseTraceListener trace,
+			TimeBudget budget) {
+		ParseTree parseRoot = new ParseTree(grammar, startSymbol);
+		int[] nodeStack = new int[16];
+		int[] symbolStack = new int[16];
+		int sp = -1;
+		nodeStack[++sp] = ParseTree.NONE;
+		symbolStack[sp] = dollarSymbol;
+		nodeStack[++sp] = 0;
+		symbolStack[sp] = startSymbol;
+		int steps = 0;
+
+		while (sp >= 0) {
+			if (budget != null && ++steps == TimeBudget.CHECK_INTERVAL) {
+				budget.check();
+				steps = 0;
+			}
+			int stackSymbol = symbolStack[sp];
+			int tokenSymbol = tokens.kind();
+
+			trace.parserStep(grammar, symbolStack, sp, parseRoot);
+
+			if (grammar.isTerminal(stackSymbol)) {
+				if (stackSymbol != tokenSymbol)
+					throw malformed(tokenSymbol, stackSymbol);
+				trace.token(grammar, tokenSymbol, tokens.value(),
+						tokens.offset());
+				if (tokenSymbol == doubleSymbol)
+					parseRoot.setNumber(nodeStack[sp], tokens.value(),
+							tokens.offset());
+				else if (tokenSymbol == idSymbol)
+					parseRoot.setName(nodeStack[sp], tokens.name());
+				sp--;
+				if (tokenSymbol != dollarSymbol)
+					tokens.advance();
+			} else {
+				int production = grammar.getProduction(stackSymbol,
+						tokenSymbol);
+				if (production == -1)
+					throw malformed(tokenSymbol, stackSymbol);
+				int outGoing = nodeStack[sp--];
+				int[] symbols = grammar.getProductionSymbols(production);
+				if (sp + symbols.length >= nodeStack.length) {
+					nodeStack = Arrays.copyOf(nodeStack, nodeStack.length * 2);
+					symbolStack = Arrays.copyOf(symbolStack,
+							symbolStack.length * 2);
+				}
+				/* the children are contiguous nodes */
+				int first = parseRoot.addChildren(outGoing, symbols);
+				for (int i = symbols.length - 1; i >= 0; i--) {
+					nodeStack[++sp] = first + i;
+					symbolStack[sp] = symbols[i];
+				}
+			}
+		}
+		return parseRoot;
+	}
+
+	/**
+	 * Creates the error of an unexpected token.
+	 * 
+	 * @param tokenSymbol
+	 *            The symbol of the token.
+	 * @param stackSymbol
+	 *            The symbol on the top of the stack.
+	 * @return The error.
+	 */
+	private EvaluationException malformed(int tokenSymbol, int stackSymbol) {
+		return new EvaluationException("Malformed input at token: \""
+				+ grammar.getSymbol(tokenSymbol) + "\" expected: \""
+				+ grammar.getSymbol(stackSymbol) + "\"");
+	}
+}
@@ -0,0 +1,273 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.SyntaxError;
+import hu.atw.eve_hci001.kalkulator.model.TokenSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the syntax of an input without building a parse tree and without
+ * evaluating it. Runs the LL(1) table of the grammar over the tokens with a
+ * stack of symbol ids only, and does not stop at the first error: after an
+ * error it recovers in panic mode and reports the further errors too, each
+ * with its offset. The first error is the same as the one of the
+ * {@link Interpreter}. Only reads the grammar, so it can be shared between
+ * threads.
+ * 
+ * Recovery: a missing terminal is assumed to be there; a nonterminal that
+ * can not start at the token is skipped at ")" and at the end of the input,
+ * otherwise the token is skipped; tokens after a complete expression are
+ * skipped until one that can start a new expression. Malformed tokens are
+ * reported by the lexer and skipped; a malformed number is passed on as a
+ * number, so its operand does not cause further errors.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class Recognizer {
+	private final Grammar grammar;
+	private final Lexer lexer;
+	private final int dollarSymbol;
+	private final int startSymbol;
+	private final int doubleSymbol;
+	private final int expSymbol;
+	private final int closeSymbol;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param grammar
+	 *            The grammar.
+	 */
+	public Recognizer(Grammar grammar) {
+		this.grammar = grammar;
+		lexer = new Lexer(grammar);
+		dollarSymbol = grammar.getSymbolId("$");
+		startSymbol = grammar.getSymbolId("S");
+		doubleSymbol = grammar.getSymbolId("double");
+		expSymbol = grammar.getSymbolId("EXP");
+		closeSymbol = grammar.getSymbolId(")");
+	}
+
+	/**
+	 * Checks the syntax of an input.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @return True, if it is a valid expression, false otherwise.
+	 */
+	public boolean isValid(CharSequence input) {
+		return recognize(input, true).isEmpty();
+	}
+
+	/**
+	 * Finds the syntax errors of an input.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @return The errors in the order of their offsets, empty if the input
+	 *         is a valid expression.
+	 */
+	public List<SyntaxError> validate(CharSequence input) {
+		return recognize(input, false);
+	}
+
+	/**
+	 * Runs the parser table over the input.
+	 * 
+	 * @param input
+	 *            The input.
+	 * @param firstOnly
+	 *            True, if it stops at the first error.
+	 * @return The errors.
+	 */
+	private List<SyntaxError> recognize(CharSequence input, boolean firstOnly) {
+		Scanner tokens = new Scanner(input);
+		int[] stack = new int[16];
+		int sp = -1;
+		stack[++sp] = dollarSymbol;
+		stack[++sp] = startSymbol;
+
+		while (sp >= 0 && !(firstOnly && !tokens.errors.isEmpty())) {
+			int stackSymbol = stack[sp];
+			int tokenSymbol = tokens.kind();
+
+			if (grammar.isTerminal(stackSymbol)) {
+				if (stackSymbol == tokenSymbol) {
+					sp--;
+					if (tokenSymbol != dollarSymbol)
+						tokens.advance();
+					continue;
+				}
+				tokens.malformed(tokenSymbol, stackSymbol);
+				if (stackSymbol != dollarSymbol) {
+					/* assume the missing terminal */
+					sp--;
+				} else if (grammar.getProduction(expSymbol,
+						tokenSymbol) != -1) {
+					/* a new expression starts after a complete one */
+					stack[++sp] = startSymbol;
+				} else {
+					tokens.advance();
+				}
+				continue;
+			}
+
+			int production = grammar.getProduction(stackSymbol, tokenSymbol);
+			if (production == -1) {
+				tokens.malformed(tokenSymbol, stackSymbol);
+				if (tokenSymbol == dollarSymbol || tokenSymbol == closeSymbol)
+					sp--;
+				else
+					tokens.advance();
+				continue;
+			}
+			int[] symbols = grammar.getProductionSymbols(production);
+			sp--;
+			if (sp + symbols.length >= stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			for (int i = symbols.length - 1; i >= 0; i--) {
+				stack[++sp] = symbols[i];
+			}
+		}
+		return tokens.errors;
+	}
+
+	/**
+	 * The tokens of an input, with the errors found so far. Skips the
+	 * malformed tokens, except the malformed numbers, which stand as a number
+	 * token.
+	 */
+	private class Scanner {
+		private final CharSequence input;
+		private final List<SyntaxError> errors;
+		private TokenSource cursor;
+		/** Offset of the malformed number standing as the token, or -1. */
+		private int numberOffset = -1;
+		/** The position after the malformed number. */
+		private int resume;
+
+		/**
+		 * Constructor. Positions the cursor at the first token.
+		 * 
+		 * @param input
+		 *            The input.
+		 */
+		Scanner(CharSequence input) {
+			this.input = input;
+			errors = new ArrayList<SyntaxError>(0);
+			open(0);
+		}
+
+		/**
+		 * 
+		 * @return Id of the terminal symbol of the current token.
+		 */
+		int kind() {
+			return numberOffset != -1 ? doubleSymbol : cursor.kind();
+		}
+
+		/**
+		 * 
+		 * @return Offset of the current token in the input.
+		 */
+		int offset() {
+			return numberOffset != -1 ? numberOffset : cursor.offset();
+		}
+
+		/**
+		 * Steps to the next token that is well-formed or a malformed number.
+		 */
+		void advance() {
+			if (numberOffset != -1) {
+				numberOffset = -1;
+				open(resume);
+				return;
+			}
+			try {
+				cursor.advance();
+			} catch (EvaluationException e) {
+				int position = skip(e);
+				if (numberOffset != -1)
+					resume = position;
+				else
+					open(position);
+			}
+		}
+
+		/**
+		 * Records the error of an unexpected token, unless there is already
+		 * an error at its offset.
+		 * 
+		 * @param tokenSymbol
+		 *            The symbol of the token.
+		 * @param stackSymbol
+		 *            The symbol on the top of the stack.
+		 */
+		void malformed(int tokenSymbol, int stackSymbol) {
+			int offset = offset();
+			if (!errors.isEmpty()
+					&& errors.get(errors.size() - 1).getOffset() == offset)
+				return;
+			errors.add(new SyntaxError("Malformed input at token: \""
+					+ grammar.getSymbol(tokenSymbol) + "\" expected: \""
+					+ grammar.getSymbol(stackSymbol) + "\"", offset));
+		}
+
+		/**
+		 * Opens the lexer at a position.
+		 * 
+		 * @param position
+		 *            Offset of the first character to be lexed.
+		 */
+		private void open(int position) {
+			while (true) {
+				try {
+					cursor = lexer.open(input, position);
+					return;
+				} catch (EvaluationException e) {
+					position = skip(e);
+					if (numberOffset != -1) {
+						resume = position;
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Records the error of a malformed token and skips it: the digits and
+		 * decimal points of a malformed number, or an unexpected character.
+		 * If the skipped characters have a digit, they become the current
+		 * token as a number.
+		 * 
+		 * @param e
+		 *            The error of the lexer.
+		 * @return The position after the malformed token.
+		 */
+		private int skip(EvaluationException e) {
+			int offset = e.getOffset();
+			errors.add(new SyntaxError(e.getMessage(), offset));
+			int position = offset;
+			boolean digits = false;
+			while (position < input.length()) {
+				char ch = input.charAt(position);
+				if (ch >= '0' && ch <= '9')
+					digits = true;
+				else if (ch != '.')
+					break;
+				position++;
+			}
+			if (position == offset)
+				position++;
+			if (digits)
+				numberOffset = offset;
+			return position;
+		}
+	}
+}
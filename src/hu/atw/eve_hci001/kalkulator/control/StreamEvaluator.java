@@ -0,0 +1,176 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Evaluates a stream with one expression per line, and writes the result of
+ * every line (the value or the error) to an output stream, so the calculator
+ * can be used as a filter in shell pipelines. The lines are read from a large
+ * byte buffer and lexed directly from the bytes, and the results are
+ * collected in a large byte buffer too. The output is not flushed per line,
+ * only when the buffer is full or the input has no more bytes available at
+ * the moment, so a long input is written in large blocks while an
+ * interactive one still gets its answers.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class StreamEvaluator {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ExpressionEngine engine;
+	private byte[] in;
+	private ByteLine line;
+	private final byte[] out;
+	private int outSize;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param engine
+	 *            The engine evaluating the expressions.
+	 */
+	public StreamEvaluator(ExpressionEngine engine) {
+		this.engine = engine;
+		in = new byte[BUFFER_SIZE];
+		line = new ByteLine(ByteBuffer.wrap(in));
+		out = new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Evaluates the lines of a stream. The streams are not closed, the output
+	 * is flushed at the end.
+	 * 
+	 * @param input
+	 *            The expressions, one per line.
+	 * @param output
+	 *            Receives the results, one per line.
+	 * @return The number of the lines.
+	 * @throws IOException
+	 *             If a stream can not be read or written.
+	 */
+	public long evaluate(InputStream input, OutputStream output)
+			throws IOException {
+		long lines = 0;
+		int start = 0;
+		int size = 0;
+		while (true) {
+			/* move the incomplete line to the front, or make room for it */
+			if (start > 0) {
+				System.arraycopy(in, start, in, 0, size - start);
+				size -= start;
+				start = 0;
+			} else if (size == in.length) {
+				in = Arrays.copyOf(in, in.length * 2);
+				line = new ByteLine(ByteBuffer.wrap(in));
+			}
+			if (outSize > 0 && input.available() == 0)
+				flush(output);
+			int read = input.read(in, size, in.length - size);
+			if (read == -1)
+				break;
+			int scanned = size;
+			size += read;
+			for (int i = scanned; i < size; i++) {
+				if (in[i] == '\n') {
+					evaluateLine(start, i, output);
+					lines++;
+					start = i + 1;
+				}
+			}
+		}
+		if (size > 0) {
+			/* the last line has no line end */
+			evaluateLine(0, size, output);
+			lines++;
+		}
+		flush(output);
+		return lines;
+	}
+
+	/**
+	 * Evaluates a line and appends its result to the output buffer.
+	 * 
+	 * @param start
+	 *            Index of the first byte of the line.
+	 * @param end
+	 *            Index of the line end.
+	 * @param output
+	 *            The output stream, written when the buffer is full.
+	 * @throws IOException
+	 *             If the output can not be written.
+	 */
+	private void evaluateLine(int start, int end, OutputStream output)
+			throws IOException {
+		boolean ascii = true;
+		for (int i = start; i < end; i++) {
+			ascii &= in[i] >= 0;
+		}
+		if (end > start && in[end - 1] == '\r')
+			end--;
+		line.set(start, end);
+		String result;
+		if (ascii)
+			result = engine.tryEvaluate(line).toString();
+		else
+			result = engine.tryEvaluate(line.decode()).toString();
+		int length = result.length();
+		boolean fits = length < out.length;
+		for (int i = 0; i < length && fits; i++) {
+			/* only the errors of unexpected characters may not be ASCII */
+			fits = result.charAt(i) < 128;
+		}
+		if (!fits) {
+			write(result.getBytes(StandardCharsets.UTF_8), output);
+			write(new byte[] { '\n' }, output);
+			return;
+		}
+		if (outSize + length + 1 > out.length)
+			flush(output);
+		for (int i = 0; i < length; i++) {
+			out[outSize++] = (byte) result.charAt(i);
+		}
+		out[outSize++] = '\n';
+	}
+
+	/**
+	 * Appends bytes to the output buffer.
+	 * 
+	 * @param bytes
+	 *            The bytes.
+	 * @param output
+	 *            The output stream, written when the buffer is full.
+	 * @throws IOException
+	 *             If the output can not be written.
+	 */
+	private void write(byte[] bytes, OutputStream output) throws IOException {
+		if (outSize + bytes.length > out.length)
+			flush(output);
+		if (bytes.length > out.length) {
+			output.write(bytes);
+			return;
+		}
+		System.arraycopy(bytes, 0, out, outSize, bytes.length);
+		outSize += bytes.length;
+	}
+
+	/**
+	 * Writes the output buffer to the stream and flushes the stream.
+	 * 
+	 * @param output
+	 *            The output stream.
+	 * @throws IOException
+	 *             If the output can not be written.
+	 */
+	private void flush(OutputStream output) throws IOException {
+		output.write(out, 0, outSize);
+		output.flush();
+		outSize = 0;
+	}
+}
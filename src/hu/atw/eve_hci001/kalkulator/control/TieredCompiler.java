@@ -0,0 +1,108 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+
+/**
+ * Promotes the hot {@link TieredExpression}s to generated classes. An
+ * expression is promoted after a given number of evaluations; the number of
+ * the generated classes alive at the same time is bounded, so the metaspace
+ * they take is bounded too. When the bound is reached, a class that was not
+ * used recently is taken back from its expression, like in the clock page
+ * replacement: the expressions are visited in a circle, a used one is given a
+ * second chance, an unused one gives up its class. The taken back class is
+ * unloaded by the garbage collector with its class loader. Can be shared
+ * between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class TieredCompiler {
+	/** Default number of evaluations before promotion. */
+	public static final int DEFAULT_THRESHOLD = 10000;
+	/** Default number of the generated classes alive at the same time. */
+	public static final int DEFAULT_MAX_CLASSES = 256;
+
+	private final BytecodeCompiler bytecodeCompiler;
+	private final int threshold;
+	private final TieredExpression[] promoted;
+	private int size;
+	private int hand;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param threshold
+	 *            Number of evaluations before an expression is promoted.
+	 * @param maxClasses
+	 *            Number of the generated classes alive at the same time.
+	 * @throws IllegalArgumentException
+	 *             If the threshold or the number of classes is not positive.
+	 */
+	public TieredCompiler(int threshold, int maxClasses) {
+		if (threshold <= 0)
+			throw new IllegalArgumentException("Threshold must be positive: "
+					+ threshold);
+		if (maxClasses <= 0)
+			throw new IllegalArgumentException(
+					"Number of classes must be positive: " + maxClasses);
+		bytecodeCompiler = new BytecodeCompiler();
+		this.threshold = threshold;
+		promoted = new TieredExpression[maxClasses];
+	}
+
+	/**
+	 * Wraps a compiled expression, so it is promoted when it is hot.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @return The expression evaluated on the tiers.
+	 */
+	public TieredExpression tier(CompiledExpression program) {
+		return new TieredExpression(program, this,
+				bytecodeCompiler.canCompile(program));
+	}
+
+	/**
+	 * 
+	 * @return Number of evaluations before an expression is promoted.
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * 
+	 * @return Number of the generated classes alive.
+	 */
+	public synchronized int getGeneratedClasses() {
+		return size;
+	}
+
+	/**
+	 * Promotes an expression, taking back a class that was not used recently
+	 * if there are too many.
+	 * 
+	 * @param expression
+	 *            The expression.
+	 */
+	synchronized void promote(TieredExpression expression) {
+		if (expression.getGenerated() != null)
+			return;
+		GeneratedExpression generated = bytecodeCompiler.compile(expression
+				.getProgram());
+		if (size < promoted.length) {
+			promoted[size++] = expression;
+		} else {
+			/* two rounds clear every flag, unless they are set again */
+			for (int i = 0; i < 2 * promoted.length
+					&& promoted[hand].takeUsed(); i++) {
+				hand = (hand + 1) % promoted.length;
+			}
+			promoted[hand].setGenerated(null);
+			promoted[hand] = expression;
+			hand = (hand + 1) % promoted.length;
+		}
+		expression.setGenerated(generated);
+	}
+}
@@ -0,0 +1,136 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationException;
+
+/**
+ * A compiled expression that is promoted to JVM bytecode when it is hot. It
+ * is evaluated by the postfix evaluator of {@link CompiledExpression} at
+ * first, and counts its evaluations; past the threshold of its
+ * {@link TieredCompiler} it is translated into a generated class, and then it
+ * runs as straight-line double arithmetic. The compiler may take the class
+ * back to keep the number of the generated classes bounded, then the
+ * expression continues in the evaluator and counts again. The results are
+ * the same on both tiers. Can be shared between threads, the counter is not
+ * exact when it is.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class TieredExpression {
+	private final CompiledExpression program;
+	private final TieredCompiler compiler;
+	private final boolean compilable;
+	private int evaluations;
+	private volatile GeneratedExpression generated;
+	/** Set when the generated class runs, cleared by the compiler. */
+	private boolean used;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param program
+	 *            The compiled expression.
+	 * @param compiler
+	 *            The compiler promoting it.
+	 * @param compilable
+	 *            False, if the expression is too long to be promoted.
+	 */
+	TieredExpression(CompiledExpression program, TieredCompiler compiler,
+			boolean compilable) {
+		this.program = program;
+		this.compiler = compiler;
+		this.compilable = compilable;
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if a variable has no value.
+	 */
+	public double evaluateWith(double[] values) {
+		return evaluate(values, null);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables, on a
+	 * caller supplied operand stack, so repeated evaluations do not allocate.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @param stack
+	 *            The operand stack of the evaluator, at least
+	 *            {@link CompiledExpression#getMaxStack()} long, null to
+	 *            allocate one when it is needed.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if a variable has no value.
+	 */
+	public double evaluate(double[] values, double[] stack) {
+		GeneratedExpression generated = this.generated;
+		if (generated != null) {
+			used = true;
+			if (values.length >= program.getVariables().length)
+				return generated.evaluate(values);
+		} else if (compilable && ++evaluations >= compiler.getThreshold()) {
+			compiler.promote(this);
+		}
+		if (stack == null)
+			stack = new double[program.getMaxStack()];
+		return program.evaluate(values, stack);
+	}
+
+	/**
+	 * 
+	 * @return The compiled expression.
+	 */
+	public CompiledExpression getProgram() {
+		return program;
+	}
+
+	/**
+	 * 
+	 * @return True, if the expression runs as a generated class.
+	 */
+	public boolean isGenerated() {
+		return generated != null;
+	}
+
+	/**
+	 * 
+	 * @return The instance of the generated class, null if there is none.
+	 */
+	GeneratedExpression getGenerated() {
+		return generated;
+	}
+
+	/**
+	 * Sets the generated class. Called by the compiler.
+	 * 
+	 * @param generated
+	 *            The instance of the generated class, null to return to the
+	 *            evaluator.
+	 */
+	void setGenerated(GeneratedExpression generated) {
+		evaluations = 0;
+		used = generated != null;
+		this.generated = generated;
+	}
+
+	/**
+	 * Reads and clears the flag of the recent use of the generated class.
+	 * Called by the compiler.
+	 * 
+	 * @return True, if the generated class was evaluated since the last call.
+	 */
+	boolean takeUsed() {
+		boolean used = this.used;
+		this.used = false;
+		return used;
+	}
+}
@@ -0,0 +1,63 @@
+package hu.atw.eve_hci001.kalkulator.control;
+
+import hu.atw.eve_hci001.kalkulator.model.CompiledExpression;
+import hu.atw.eve_hci001.kalkulator.model.EvaluationResult;
+import hu.atw.eve_hci001.kalkulator.model.Grammar;
+import hu.atw.eve_hci001.kalkulator.model.ParseTree;
+
+import java.io.PrintStream;
+
+/**
+ * Prints every step of the interpretation. Printing the parse tree on every
+ * parser step makes parsing quadratic, so this should only be used for
+ * debugging small inputs.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class VerboseParseTraceListener implements ParseTraceListener {
+	private PrintStream out;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param out
+	 *            The stream to print to.
+	 */
+	public VerboseParseTraceListener(PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void parsingTable(Grammar grammar) {
+		out.print(grammar.parsingTableToString());
+	}
+
+	@Override
+	public void token(Grammar grammar, int kind, double value, int offset) {
+		out.println("Lexer: " + grammar.getSymbol(kind) + " " + value
+				+ " at " + offset);
+	}
+
+	@Override
+	public void parserStep(Grammar grammar, int[] symbolStack, int top,
+			ParseTree parseRoot) {
+		StringBuilder sb = new StringBuilder("\nStack:");
+		for (int i = 0; i <= top; i++) {
+			sb.append(' ').append(grammar.getSymbol(symbolStack[i]));
+		}
+		out.println(sb);
+		out.println("ParseTree:" + parseRoot);
+	}
+
+	@Override
+	public void compiled(CompiledExpression program) {
+		out.println("\nEvaluating: " + program);
+	}
+
+	@Override
+	public void evaluated(EvaluationResult result) {
+		out.println(result);
+	}
+}
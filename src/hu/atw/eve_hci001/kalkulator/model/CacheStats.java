@@ -0,0 +1,96 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * Snapshot of the counters of an expression cache.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class CacheStats {
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final int size;
+	private final int capacity;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param hits
+	 *            Number of lookups that found the expression.
+	 * @param misses
+	 *            Number of lookups that did not find the expression.
+	 * @param evictions
+	 *            Number of expressions removed to make room for new ones.
+	 * @param size
+	 *            Number of expressions in the cache.
+	 * @param capacity
+	 *            Maximum number of expressions in the cache.
+	 */
+	public CacheStats(long hits, long misses, long evictions, int size,
+			int capacity) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * 
+	 * @return Number of lookups that found the expression.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * 
+	 * @return Number of lookups that did not find the expression.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * 
+	 * @return Number of expressions removed to make room for new ones.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * 
+	 * @return Number of expressions in the cache.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @return Maximum number of expressions in the cache.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * 
+	 * @return The ratio of the hits to all lookups, 0 if there were none.
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		if (lookups == 0)
+			return 0.0;
+		return (double) hits / lookups;
+	}
+
+	@Override
+	public String toString() {
+		return "hits= " + hits + " misses= " + misses + " evictions= "
+				+ evictions + " size= " + size + "/" + capacity;
+	}
+}
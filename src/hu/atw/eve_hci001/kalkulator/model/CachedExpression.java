@@ -0,0 +1,45 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * Stores what the cache knows about an expression: its compiled form and the
+ * result of evaluating it.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class CachedExpression {
+	private final CompiledExpression program;
+	private final EvaluationResult result;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param program
+	 *            The compiled expression, null if the expression is
+	 *            malformed.
+	 * @param result
+	 *            The result of the evaluation.
+	 */
+	public CachedExpression(CompiledExpression program,
+			EvaluationResult result) {
+		this.program = program;
+		this.result = result;
+	}
+
+	/**
+	 * 
+	 * @return The compiled expression, null if the expression is malformed.
+	 */
+	public CompiledExpression getProgram() {
+		return program;
+	}
+
+	/**
+	 * 
+	 * @return The result of the evaluation.
+	 */
+	public EvaluationResult getResult() {
+		return result;
+	}
+}
@@ -0,0 +1,333 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+import java.math.BigDecimal;
+
+/**
+ * Stores an expression compiled to postfix (reverse polish) notation. The
+ * instructions are kept in an int array, the numbers in a separate constant
+ * pool, so evaluating the expression again does not have to walk the parse
+ * tree. The variables are resolved to slots at compile time: the values are
+ * passed in an array, in the order of {@link #getVariables()}, so one
+ * expression can be evaluated against many bindings without looking up names.
+ * Instances are immutable and can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class CompiledExpression {
+	/** Pushes a constant, the operand is its index in the constant pool. */
+	public static final int PUSH = 0;
+	public static final int ADD = 1;
+	public static final int SUB = 2;
+	public static final int MUL = 3;
+	public static final int DIV = 4;
+	public static final int MOD = 5;
+	public static final int NEG = 6;
+	/** Pushes a variable, the operand is its slot. */
+	public static final int LOAD = 7;
+	/** Number of the low bits of an instruction holding the opcode. */
+	public static final int OPCODE_BITS = 4;
+	public static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+	private static final double[] NO_VALUES = new double[0];
+
+	private final int[] code;
+	private final double[] constants;
+	private final BigDecimal[] decimals;
+	private final String[] variables;
+	private final int maxStack;
+
+	/**
+	 * Constructor of an expression without variables.
+	 * 
+	 * @param code
+	 *            The instructions, the opcode in the low bits and the operand
+	 *            in the high bits.
+	 * @param constants
+	 *            The constant pool.
+	 * @param maxStack
+	 *            The maximum depth of the operand stack.
+	 */
+	public CompiledExpression(int[] code, double[] constants, int maxStack) {
+		this(code, constants, new String[0], maxStack);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param code
+	 *            The instructions, the opcode in the low bits and the operand
+	 *            in the high bits.
+	 * @param constants
+	 *            The constant pool.
+	 * @param variables
+	 *            The names of the variables, indexed by their slots.
+	 * @param maxStack
+	 *            The maximum depth of the operand stack.
+	 */
+	public CompiledExpression(int[] code, double[] constants,
+			String[] variables, int maxStack) {
+		this(code, constants, null, variables, maxStack);
+	}
+
+	/**
+	 * Constructor of an expression that also keeps the exact decimal values
+	 * of its numbers, for the evaluation in decimal.
+	 * 
+	 * @param code
+	 *            The instructions, the opcode in the low bits and the operand
+	 *            in the high bits.
+	 * @param constants
+	 *            The constant pool.
+	 * @param decimals
+	 *            The exact values of the constants, with the same indexes,
+	 *            null if they are not known.
+	 * @param variables
+	 *            The names of the variables, indexed by their slots.
+	 * @param maxStack
+	 *            The maximum depth of the operand stack.
+	 */
+	public CompiledExpression(int[] code, double[] constants,
+			BigDecimal[] decimals, String[] variables, int maxStack) {
+		this.code = code;
+		this.constants = constants;
+		this.decimals = decimals;
+		this.variables = variables;
+		this.maxStack = maxStack;
+	}
+
+	/**
+	 * Evaluates the expression.
+	 * 
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if the expression has variables.
+	 */
+	public double evaluate() {
+		return evaluate(new double[maxStack]);
+	}
+
+	/**
+	 * Evaluates the expression within a time budget.
+	 * 
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, if the expression has variables or the
+	 *             budget is exhausted.
+	 */
+	public double evaluate(TimeBudget budget) {
+		return evaluate(NO_VALUES, new double[maxStack], budget);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if a variable has no value.
+	 */
+	public double evaluateWith(double[] values) {
+		return evaluate(values, new double[maxStack]);
+	}
+
+	/**
+	 * Evaluates the expression on a caller supplied operand stack, so repeated
+	 * evaluations do not allocate.
+	 * 
+	 * @param stack
+	 *            The operand stack, at least {@link #getMaxStack()} long.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if the expression has variables.
+	 */
+	public double evaluate(double[] stack) {
+		return evaluate(NO_VALUES, stack);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables, on a
+	 * caller supplied operand stack, so repeated evaluations do not allocate.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @param stack
+	 *            The operand stack, at least {@link #getMaxStack()} long.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if a variable has no value.
+	 */
+	public double evaluate(double[] values, double[] stack) {
+		return evaluate(values, stack, null);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables, on a
+	 * caller supplied operand stack, within a time budget. The budget is
+	 * checked between blocks of instructions, so the instruction loop itself
+	 * stays as fast as without a budget.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @param stack
+	 *            The operand stack, at least {@link #getMaxStack()} long.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, if a variable has no value or the
+	 *             budget is exhausted.
+	 */
+	public double evaluate(double[] values, double[] stack, TimeBudget budget) {
+		if (values.length < variables.length)
+			throw new EvaluationException("Unbound variable: \""
+					+ variables[values.length] + "\"");
+		final int[] code = this.code;
+		final double[] constants = this.constants;
+		int sp = -1;
+		int pc = 0;
+		while (pc < code.length) {
+			int blockEnd = code.length;
+			if (budget != null) {
+				budget.check();
+				blockEnd = Math.min(code.length, pc
+						+ TimeBudget.CHECK_INTERVAL);
+			}
+			for (; pc < blockEnd; pc++) {
+				int instruction = code[pc];
+				switch (instruction & OPCODE_MASK) {
+				case PUSH:
+					stack[++sp] = constants[instruction >>> OPCODE_BITS];
+					break;
+				case LOAD:
+					stack[++sp] = values[instruction >>> OPCODE_BITS];
+					break;
+				case ADD:
+					sp--;
+					stack[sp] = stack[sp] + stack[sp + 1];
+					break;
+				case SUB:
+					sp--;
+					stack[sp] = stack[sp] - stack[sp + 1];
+					break;
+				case MUL:
+					sp--;
+					stack[sp] = stack[sp] * stack[sp + 1];
+					break;
+				case DIV:
+					sp--;
+					if (stack[sp + 1] == 0.0)
+						throw new EvaluationException("Divide by zero.");
+					stack[sp] = stack[sp] / stack[sp + 1];
+					break;
+				case MOD:
+					sp--;
+					if (stack[sp + 1] == 0.0)
+						throw new EvaluationException("Divide by zero.");
+					stack[sp] = stack[sp] % stack[sp + 1];
+					break;
+				case NEG:
+					stack[sp] = -stack[sp];
+					break;
+				}
+			}
+		}
+		return stack[sp];
+	}
+
+	/**
+	 * 
+	 * @return The instructions.
+	 */
+	public int[] getCode() {
+		return code;
+	}
+
+	/**
+	 * 
+	 * @return The constant pool.
+	 */
+	public double[] getConstants() {
+		return constants;
+	}
+
+	/**
+	 * 
+	 * @return The exact decimal values of the constants, null if they are not
+	 *         known. Must not be modified.
+	 */
+	public BigDecimal[] getDecimals() {
+		return decimals;
+	}
+
+	/**
+	 * 
+	 * @return The names of the variables, indexed by their slots. Must not be
+	 *         modified.
+	 */
+	public String[] getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Returns the slot of a variable.
+	 * 
+	 * @param name
+	 *            The name of the variable.
+	 * @return The slot of the variable, -1 if the expression does not use it.
+	 */
+	public int getSlot(String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * 
+	 * @return The maximum depth of the operand stack.
+	 */
+	public int getMaxStack() {
+		return maxStack;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int instruction : code) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			switch (instruction & OPCODE_MASK) {
+			case PUSH:
+				sb.append(constants[instruction >>> OPCODE_BITS]);
+				break;
+			case LOAD:
+				sb.append(variables[instruction >>> OPCODE_BITS]);
+				break;
+			case ADD:
+				sb.append('+');
+				break;
+			case SUB:
+				sb.append('-');
+				break;
+			case MUL:
+				sb.append('*');
+				break;
+			case DIV:
+				sb.append('/');
+				break;
+			case MOD:
+				sb.append('%');
+				break;
+			case NEG:
+				sb.append("neg");
+				break;
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,47 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * Thrown when an expression can not be evaluated. It reports a problem of the
+ * input rather than a bug, so the stack trace is not filled in: throwing it
+ * stays cheap even when most of the inputs are malformed.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class EvaluationException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+
+	private final int offset;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param error
+	 *            The error description.
+	 */
+	public EvaluationException(String error) {
+		this(error, -1);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param error
+	 *            The error description.
+	 * @param offset
+	 *            Offset of the error in the input, -1 if it is not known.
+	 */
+	public EvaluationException(String error, int offset) {
+		super(error, null, false, false);
+		this.offset = offset;
+	}
+
+	/**
+	 * 
+	 * @return Offset of the error in the input, -1 if it is not known.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+}
@@ -0,0 +1,67 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * Stores the outcome of an evaluation: either the value of the expression or
+ * the description of the error that stopped the interpretation.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class EvaluationResult {
+	private final double value;
+	private final String error;
+
+	/**
+	 * Constructor for a successful evaluation.
+	 * 
+	 * @param value
+	 *            The value of the expression.
+	 */
+	public EvaluationResult(double value) {
+		this.value = value;
+		this.error = null;
+	}
+
+	/**
+	 * Constructor for a failed evaluation.
+	 * 
+	 * @param error
+	 *            The error description.
+	 */
+	public EvaluationResult(String error) {
+		this.value = Double.NaN;
+		this.error = error;
+	}
+
+	/**
+	 * 
+	 * @return True, if the evaluation failed, false otherwise.
+	 */
+	public boolean isError() {
+		return error != null;
+	}
+
+	/**
+	 * 
+	 * @return The value of the expression, NaN if the evaluation failed.
+	 */
+	public double getValue() {
+		return value;
+	}
+
+	/**
+	 * 
+	 * @return The error description, null if the evaluation succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null)
+			return error;
+		return "ans= " + value;
+	}
+}
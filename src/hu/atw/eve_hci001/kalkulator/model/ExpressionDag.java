@@ -0,0 +1,224 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * Stores an expression as a directed acyclic graph, in which structurally
+ * identical subexpressions are a single node. An expression that repeats the
+ * same subterms takes memory in proportion to its distinct subexpressions,
+ * and every node is computed once per evaluation, however many times the
+ * subexpression occurs. The nodes are kept in flat arrays in the order of
+ * their first occurrence in the postfix code, so the operands of a node
+ * always come before it, and the evaluation is a single pass over the nodes.
+ * Instances are immutable and can be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class ExpressionDag {
+	private static final double[] NO_VALUES = new double[0];
+
+	private final int[] instructions;
+	private final int[] lefts;
+	private final int[] rights;
+	private final double[] constants;
+	private final String[] variables;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param instructions
+	 *            The instruction of each node, encoded as in
+	 *            {@link CompiledExpression}: pushes and loads carry their
+	 *            constant index or slot, operators carry no operand.
+	 * @param lefts
+	 *            The left (or only) operand node of each operator node.
+	 * @param rights
+	 *            The right operand node of each binary operator node.
+	 * @param constants
+	 *            The constant pool.
+	 * @param variables
+	 *            The names of the variables, indexed by their slots.
+	 */
+	public ExpressionDag(int[] instructions, int[] lefts, int[] rights,
+			double[] constants, String[] variables) {
+		this.instructions = instructions;
+		this.lefts = lefts;
+		this.rights = rights;
+		this.constants = constants;
+		this.variables = variables;
+	}
+
+	/**
+	 * Evaluates an expression without variables.
+	 * 
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if the expression has variables.
+	 */
+	public double evaluate() {
+		return evaluate(NO_VALUES, new double[instructions.length], null);
+	}
+
+	/**
+	 * Evaluates the expression within a time budget.
+	 * 
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, if the expression has variables or the
+	 *             budget is exhausted.
+	 */
+	public double evaluate(TimeBudget budget) {
+		return evaluate(NO_VALUES, new double[instructions.length], budget);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, or if a variable has no value.
+	 */
+	public double evaluateWith(double[] values) {
+		return evaluate(values, new double[instructions.length], null);
+	}
+
+	/**
+	 * Evaluates the expression with the given values of the variables, into
+	 * caller supplied node values, within a time budget. The budget is
+	 * checked between blocks of nodes.
+	 * 
+	 * @param values
+	 *            The values of the variables, indexed by their slots.
+	 * @param results
+	 *            Receives the value of every node, at least {@link #size()}
+	 *            long, so repeated evaluations do not allocate.
+	 * @param budget
+	 *            The time budget, null if there is no limit.
+	 * @return The value of the expression.
+	 * @throws EvaluationException
+	 *             On division by zero, if a variable has no value or the
+	 *             budget is exhausted.
+	 */
+	public double evaluate(double[] values, double[] results,
+			TimeBudget budget) {
+		if (values.length < variables.length)
+			throw new EvaluationException("Unbound variable: \""
+					+ variables[values.length] + "\"");
+		final int[] instructions = this.instructions;
+		final int[] lefts = this.lefts;
+		final int[] rights = this.rights;
+		int node = 0;
+		while (node < instructions.length) {
+			int blockEnd = instructions.length;
+			if (budget != null) {
+				budget.check();
+				blockEnd = Math.min(instructions.length, node
+						+ TimeBudget.CHECK_INTERVAL);
+			}
+			for (; node < blockEnd; node++) {
+				int instruction = instructions[node];
+				int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+				int left = lefts[node];
+				int right = rights[node];
+				switch (instruction & CompiledExpression.OPCODE_MASK) {
+				case CompiledExpression.PUSH:
+					results[node] = constants[operand];
+					break;
+				case CompiledExpression.LOAD:
+					results[node] = values[operand];
+					break;
+				case CompiledExpression.ADD:
+					results[node] = results[left] + results[right];
+					break;
+				case CompiledExpression.SUB:
+					results[node] = results[left] - results[right];
+					break;
+				case CompiledExpression.MUL:
+					results[node] = results[left] * results[right];
+					break;
+				case CompiledExpression.DIV:
+					if (results[right] == 0.0)
+						throw new EvaluationException("Divide by zero.");
+					results[node] = results[left] / results[right];
+					break;
+				case CompiledExpression.MOD:
+					if (results[right] == 0.0)
+						throw new EvaluationException("Divide by zero.");
+					results[node] = results[left] % results[right];
+					break;
+				case CompiledExpression.NEG:
+					results[node] = -results[left];
+					break;
+				}
+			}
+		}
+		/* the root is the last node */
+		return results[instructions.length - 1];
+	}
+
+	/**
+	 * 
+	 * @return The number of the nodes, the distinct subexpressions.
+	 */
+	public int size() {
+		return instructions.length;
+	}
+
+	/**
+	 * 
+	 * @return The names of the variables, indexed by their slots. Must not be
+	 *         modified.
+	 */
+	public String[] getVariables() {
+		return variables;
+	}
+
+	/**
+	 * Returns the slot of a variable.
+	 * 
+	 * @param name
+	 *            The name of the variable.
+	 * @return The slot of the variable, -1 if the expression does not use it.
+	 */
+	public int getSlot(String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int node = 0; node < instructions.length; node++) {
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append('#').append(node).append('=');
+			int instruction = instructions[node];
+			int opcode = instruction & CompiledExpression.OPCODE_MASK;
+			int operand = instruction >>> CompiledExpression.OPCODE_BITS;
+			switch (opcode) {
+			case CompiledExpression.PUSH:
+				sb.append(constants[operand]);
+				break;
+			case CompiledExpression.LOAD:
+				sb.append(variables[operand]);
+				break;
+			case CompiledExpression.NEG:
+				sb.append("neg#").append(lefts[node]);
+				break;
+			default:
+				sb.append('#').append(lefts[node]);
+				sb.append("+-*/%".charAt(opcode - 1));
+				sb.append('#').append(rights[node]);
+				break;
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -1,23 +1,31 @@
 package hu.atw.eve_hci001.kalkulator.model;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * This class stores rules for the grammar and performs high level operations
- * related to them.
+ * related to them. Every symbol gets an integer id: the terminals are numbered
+ * from 0, the nonterminals follow them in the order of the rules. The parsing
+ * tables are not computed from the rules at construction, they are loaded from
+ * {@link GrammarTables}, which is generated from the rules by
+ * {@link GrammarTableGenerator}.
  * 
  * @author László Ádám
  *
  */
 
 public class Grammar {
-	private ArrayList<Character> operators;
+	private boolean[] operators;
 	private ArrayList<Rule> rules;
+	private int terminalCount;
+	private String[] symbols;
+	private HashMap<String, Integer> symbolIds;
+	private int[][] productions;
+	private int[] emptyProductions;
 	private int[][] parseTable;
-	private HashSet<String> ruleSymbols;
-	private ArrayList<String> terminals;
-	private ArrayList<String> nonTerminals;
+	private int[][] productionTable;
 
 	/**
 	 * Constructor.
@@ -25,10 +33,7 @@ public class Grammar {
 	public Grammar() {
 		setOperators();
 		setRules();
-		autoSetRuleSymbols();
-		autoSetNonTerminals();
-		autoSetTerminals();
-		autoGenerateParsingTable();
+		loadTables();
 	}
 
 	/**
@@ -38,8 +43,8 @@ public class Grammar {
 	 *            The character.
 	 * @return True, if it's an operator, false othwewise.
 	 */
-	public boolean isOperator(Character ch) {
-		return operators.contains(ch);
+	public boolean isOperator(char ch) {
+		return ch < operators.length && operators[ch];
 	}
 
 	/**
@@ -78,7 +83,44 @@ public class Grammar {
 	 * @return True, if it's a terminal of the grammar, false otherwise.
 	 */
 	public boolean isTerminal(String symbol) {
-		return terminals.contains(symbol);
+		Integer id = symbolIds.get(symbol);
+		return id != null && isTerminal(id);
+	}
+
+	/**
+	 * Determines of a symbol is a terminal.
+	 * 
+	 * @param symbol
+	 *            Id of the symbol.
+	 * @return True, if it's a terminal of the grammar, false otherwise.
+	 */
+	public boolean isTerminal(int symbol) {
+		return symbol < terminalCount;
+	}
+
+	/**
+	 * Returns the id of a symbol.
+	 * 
+	 * @param symbol
+	 *            The symbol.
+	 * @return Id of the symbol, -1 if it's not a symbol of the grammar.
+	 */
+	public int getSymbolId(String symbol) {
+		Integer id = symbolIds.get(symbol);
+		if (id == null)
+			return -1;
+		return id;
+	}
+
+	/**
+	 * Returns a symbol by its id.
+	 * 
+	 * @param id
+	 *            Id of the symbol.
+	 * @return The symbol.
+	 */
+	public String getSymbol(int id) {
+		return symbols[id];
 	}
 
 	/**
@@ -90,17 +132,9 @@ public class Grammar {
 	 * @return True, if it can be removed, false otherwise.
 	 */
 	public boolean isRemoveable(String nonTerminal) {
-		for (Rule rule : rules) {
-			if (rule.getLeft().equals(nonTerminal)) {
-				String[] rightPossibilities = rule.getRight().split("\\|");
-				for (String tokens : rightPossibilities) {
-					if (tokens.equals("$"))
-						return true;
-				}
-				break;
-			}
-		}
-		return false;
+		Integer id = symbolIds.get(nonTerminal);
+		return id != null && !isTerminal(id)
+				&& emptyProductions[id - terminalCount] != -1;
 	}
 
 	/**
@@ -125,43 +159,80 @@ public class Grammar {
 	 * @return The corresponding grammar.
 	 */
 	public int getApplyRuleIndex(String stackType, String tokenType) {
-		int nt = nonTerminals.indexOf(stackType);
-		int t = terminals.indexOf(tokenType);
+		int nt = symbolIds.get(stackType) - terminalCount;
+		int t = symbolIds.get(tokenType);
 		return parseTable[nt][t];
 	}
 
+	/**
+	 * Returns the production to expand based on the top of the stack and the
+	 * next lexer token. Removeable nonterminals are expanded to their empty
+	 * production when no rule applies.
+	 * 
+	 * @param nonTerminal
+	 *            Id of the nonterminal on the top of the stack.
+	 * @param terminal
+	 *            Id of the next lexer token.
+	 * @return Index of the production, -1 if the input is malformed.
+	 */
+	public int getProduction(int nonTerminal, int terminal) {
+		return productionTable[nonTerminal - terminalCount][terminal];
+	}
+
+	/**
+	 * Returns the symbols of a production.
+	 * 
+	 * @param production
+	 *            Index of the production.
+	 * @return Ids of the symbols on the right side, empty for the empty
+	 *         production. Must not be modified.
+	 */
+	public int[] getProductionSymbols(int production) {
+		return productions[production];
+	}
+
 	/**
 	 * Prints the auto-created parsing table for debugging purposes.
 	 */
 	public void printParsingTale() {
-		System.out.println("Parsing table:");
-		System.out.print("\t");
-		for (int i = 0; i < terminals.size(); i++) {
-			System.out.print(terminals.get(i) + "\t");
+		System.out.print(parsingTableToString());
+	}
+
+	/**
+	 * Formats the auto-created parsing table for debugging purposes.
+	 * 
+	 * @return The parsing table, one line per nonterminal.
+	 */
+	public String parsingTableToString() {
+		StringBuilder sb = new StringBuilder("Parsing table:\n\t");
+		for (int i = 0; i < terminalCount; i++) {
+			sb.append(symbols[i]).append('\t');
 		}
-		System.out.println();
-		for (int i = 0; i < nonTerminals.size(); i++) {
-			System.out.print(nonTerminals.get(i) + "\t");
-			for (int k = 0; k < terminals.size(); k++) {
-				System.out.print("" + parseTable[i][k] + "\t");
+		sb.append('\n');
+		for (int i = 0; i < parseTable.length; i++) {
+			sb.append(symbols[terminalCount + i]).append('\t');
+			for (int k = 0; k < terminalCount; k++) {
+				sb.append(parseTable[i][k]).append('\t');
 			}
-			System.out.println();
+			sb.append('\n');
 		}
-		System.out.println();
+		sb.append('\n');
+		return sb.toString();
 	}
 
 	/**
-	 * Sets the operators of the grammar.
+	 * Sets the operators of the grammar. They are stored in a lookup table
+	 * indexed by the character.
 	 */
 	private void setOperators() {
-		operators = new ArrayList<Character>();
-		operators.add('*');
-		operators.add('/');
-		operators.add('+');
-		operators.add('-');
-		operators.add('%');
-		operators.add('(');
-		operators.add(')');
+		operators = new boolean[128];
+		operators['*'] = true;
+		operators['/'] = true;
+		operators['+'] = true;
+		operators['-'] = true;
+		operators['%'] = true;
+		operators['('] = true;
+		operators[')'] = true;
 	}
 
 	/**
@@ -169,7 +240,7 @@ public class Grammar {
 	 */
 	private void setRules() {
 		rules = new ArrayList<Rule>();
-		rules.add(new Rule("VAR", "double|( EXP )"));
+		rules.add(new Rule("VAR", "double|id|( EXP )"));
 		rules.add(new Rule("MUD", "VAR __A"));
 		rules.add(new Rule("__A", "* MUD|/ MUD|% MUD|$"));
 		rules.add(new Rule("ADD", "MUD __B"));
@@ -179,88 +250,26 @@ public class Grammar {
 	}
 
 	/**
-	 * Determines the symbols of the grammar based on the given rules.
-	 */
-	private void autoSetRuleSymbols() {
-		ruleSymbols = new HashSet<String>();
-		for (Rule rule : rules) {
-			ruleSymbols.add(rule.getLeft());
-			for (String right : rule.getRight().split("\\|")) {
-				for (String sym : right.split(" ")) {
-					ruleSymbols.add(sym);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Determines the nonterminals based on the given rules.
-	 */
-	private void autoSetNonTerminals() {
-		nonTerminals = new ArrayList<String>();
-		for (Rule rule : rules) {
-			String left = rule.getLeft();
-			nonTerminals.add(left);
-			ruleSymbols.remove(left);
-		}
-	}
-
-	/**
-	 * Determines the terminals based on the given rules.
-	 */
-	private void autoSetTerminals() {
-		terminals = new ArrayList<String>();
-		for (String symbol : ruleSymbols) {
-			terminals.add(symbol);
-		}
-	}
-
-	/**
-	 * Generates the parsing table.
+	 * 
+	 * @return The rules of the grammar, the tables are generated from them.
 	 */
-	private void autoGenerateParsingTable() {
-		int nt = nonTerminals.size();
-		int t = terminals.size();
-		parseTable = new int[nt][t];
-		for (int i = 0; i < nt; i++) {
-			for (int k = 0; k < t; k++) {
-				parseTable[i][k] = -1;
-			}
-		}
-		for (int i = 0; i < rules.size(); i++) {
-			String left = rules.get(i).getLeft();
-			tableGenerator(left, i, i);
-		}
+	List<Rule> getRules() {
+		return rules;
 	}
 
 	/**
-	 * Recursively generates a row of the the parsing table for a nonterminal.
-	 * 
-	 * @param origNonTerm
-	 *            The starting nonterminal.
-	 * @param origRuleIndex
-	 *            The starting rule index.
-	 * @param ruleIndex
-	 *            The current rule index.
+	 * Loads the generated tables and numbers the symbols.
 	 */
-	private void tableGenerator(String origNonTerm, int origRuleIndex,
-			int ruleIndex) {
-		String[] rightPossibilities = rules.get(ruleIndex).getRight()
-				.split("\\|");
-		for (String tokens : rightPossibilities) {
-			String firstToken = tokens.split(" ")[0];
-			if (terminals.contains(firstToken)) {
-				parseTable[nonTerminals.indexOf(origNonTerm)][terminals
-						.indexOf(firstToken)] = origRuleIndex;
-			} else {
-				for (int k = 0; k < this.rules.size(); k++) {
-					if (rules.get(k).getLeft().equals(firstToken)) {
-						tableGenerator(origNonTerm, origRuleIndex, k);
-						break;
-					}
-				}
-			}
+	private void loadTables() {
+		terminalCount = GrammarTables.TERMINAL_COUNT;
+		symbols = GrammarTables.SYMBOLS;
+		symbolIds = new HashMap<String, Integer>();
+		for (int i = 0; i < symbols.length; i++) {
+			symbolIds.put(symbols[i], i);
 		}
+		productions = GrammarTables.PRODUCTIONS;
+		emptyProductions = GrammarTables.EMPTY_PRODUCTIONS;
+		parseTable = GrammarTables.PARSE_TABLE;
+		productionTable = GrammarTables.PRODUCTION_TABLE;
 	}
-
 }
@@ -0,0 +1,425 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Generates the LL(1) tables of a grammar from its rules, computing the
+ * FIRST and FOLLOW sets of the nonterminals, and writes them as the source of
+ * {@link GrammarTables}. The grammar loads the generated class instead of
+ * processing its rules at every construction. The symbols are numbered in the
+ * order of their first occurrence in the rules: the terminals from 0, then
+ * the nonterminals in the order of the rules. The "$" symbol is both the end
+ * of the input and, as a whole alternative, the empty production.
+ * 
+ * Run it after changing the rules of {@link Grammar}, and copy its output
+ * over GrammarTables.java. With the "--check" argument it only compares the
+ * rules with the generated class.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class GrammarTableGenerator {
+	private static final String END = "$";
+	private static final String START = "S";
+
+	private final List<Rule> rules;
+	private String[] symbols;
+	private int terminalCount;
+	private HashMap<String, Integer> symbolIds;
+	private int[][] productions;
+	private int[] productionRules;
+	private int[] emptyProductions;
+	private boolean[] nullable;
+	private boolean[][] first;
+	private boolean[][] follow;
+	private int[][] parseTable;
+	private int[][] productionTable;
+
+	/**
+	 * Constructor. Generates the tables.
+	 * 
+	 * @param rules
+	 *            The rules of the grammar.
+	 * @throws IllegalArgumentException
+	 *             If the grammar is not LL(1).
+	 */
+	public GrammarTableGenerator(List<Rule> rules) {
+		this.rules = rules;
+		numberSymbols();
+		splitProductions();
+		computeFirst();
+		computeFollow();
+		generateTables();
+	}
+
+	/**
+	 * Main method.
+	 * 
+	 * @param args
+	 *            No arguments to print the source of the generated class,
+	 *            "--check" to compare it with the current one.
+	 * @throws UnsupportedEncodingException
+	 *             Never, UTF-8 is always supported.
+	 */
+	public static void main(String[] args)
+			throws UnsupportedEncodingException {
+		GrammarTableGenerator generator = new GrammarTableGenerator(
+				new Grammar().getRules());
+		if (args.length > 0 && args[0].equals("--check")) {
+			if (!generator.matchesTables()) {
+				System.err.println("GrammarTables is out of date.");
+				System.exit(1);
+			}
+			System.out.println("GrammarTables is up to date.");
+			return;
+		}
+		PrintStream out = new PrintStream(new FileOutputStream(
+				FileDescriptor.out), true, "UTF-8");
+		out.print(generator.toJavaSource());
+	}
+
+	/**
+	 * Compares the generated tables with the ones in {@link GrammarTables}.
+	 * 
+	 * @return True, if they are the same, false otherwise.
+	 */
+	public boolean matchesTables() {
+		return Arrays.equals(symbols, GrammarTables.SYMBOLS)
+				&& terminalCount == GrammarTables.TERMINAL_COUNT
+				&& Arrays.deepEquals(productions, GrammarTables.PRODUCTIONS)
+				&& Arrays.equals(emptyProductions,
+						GrammarTables.EMPTY_PRODUCTIONS)
+				&& Arrays.deepEquals(parseTable, GrammarTables.PARSE_TABLE)
+				&& Arrays.deepEquals(productionTable,
+						GrammarTables.PRODUCTION_TABLE);
+	}
+
+	/**
+	 * Numbers the symbols: first the terminals, then the nonterminals, both
+	 * in the order of their first occurrence.
+	 */
+	private void numberSymbols() {
+		LinkedHashSet<String> nonTerminals = new LinkedHashSet<String>();
+		for (Rule rule : rules) {
+			nonTerminals.add(rule.getLeft());
+		}
+		LinkedHashSet<String> terminals = new LinkedHashSet<String>();
+		for (Rule rule : rules) {
+			for (String right : rule.getRight().split("\\|")) {
+				for (String symbol : right.split(" ")) {
+					if (!nonTerminals.contains(symbol))
+						terminals.add(symbol);
+				}
+			}
+		}
+		terminals.add(END);
+		terminalCount = terminals.size();
+		symbols = new String[terminalCount + nonTerminals.size()];
+		symbolIds = new HashMap<String, Integer>();
+		int id = 0;
+		for (String terminal : terminals) {
+			symbols[id] = terminal;
+			symbolIds.put(terminal, id++);
+		}
+		for (String nonTerminal : nonTerminals) {
+			symbols[id] = nonTerminal;
+			symbolIds.put(nonTerminal, id++);
+		}
+	}
+
+	/**
+	 * Splits the right side of the rules into productions of symbol ids. The
+	 * "$" alternative becomes the empty production.
+	 */
+	private void splitProductions() {
+		ArrayList<int[]> productionList = new ArrayList<int[]>();
+		ArrayList<Integer> ruleList = new ArrayList<Integer>();
+		emptyProductions = new int[rules.size()];
+		for (int i = 0; i < rules.size(); i++) {
+			emptyProductions[i] = -1;
+			for (String right : rules.get(i).getRight().split("\\|")) {
+				int[] production;
+				if (right.equals(END)) {
+					production = new int[0];
+					emptyProductions[i] = productionList.size();
+				} else {
+					String[] tokens = right.split(" ");
+					production = new int[tokens.length];
+					for (int k = 0; k < tokens.length; k++) {
+						production[k] = symbolIds.get(tokens[k]);
+					}
+				}
+				productionList.add(production);
+				ruleList.add(i);
+			}
+		}
+		productions = productionList.toArray(new int[productionList.size()][]);
+		productionRules = new int[ruleList.size()];
+		for (int i = 0; i < productionRules.length; i++) {
+			productionRules[i] = ruleList.get(i);
+		}
+	}
+
+	/**
+	 * Computes the nullable nonterminals and the FIRST sets of the
+	 * nonterminals, repeating until nothing changes.
+	 */
+	private void computeFirst() {
+		nullable = new boolean[rules.size()];
+		first = new boolean[rules.size()][terminalCount];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int p = 0; p < productions.length; p++) {
+				int rule = productionRules[p];
+				changed |= addFirst(productions[p], 0, first[rule]);
+				if (!nullable[rule] && isNullable(productions[p], 0)) {
+					nullable[rule] = true;
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the FOLLOW sets of the nonterminals, repeating until nothing
+	 * changes. The end of the input follows the start symbol.
+	 */
+	private void computeFollow() {
+		follow = new boolean[rules.size()][terminalCount];
+		follow[symbolIds.get(START) - terminalCount][symbolIds.get(END)] = true;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int p = 0; p < productions.length; p++) {
+				int[] production = productions[p];
+				for (int i = 0; i < production.length; i++) {
+					if (production[i] < terminalCount)
+						continue;
+					boolean[] target = follow[production[i] - terminalCount];
+					changed |= addFirst(production, i + 1, target);
+					if (isNullable(production, i + 1))
+						changed |= addAll(follow[productionRules[p]], target);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills the tables. A production is chosen for the terminals of its FIRST
+	 * set, and the empty production for the FOLLOW set of its nonterminal.
+	 * The production table extends this with two rules of the calculator: a
+	 * nullable nonterminal is expanded to its empty production on any other
+	 * terminal, so the error is reported at the next terminal instead, and
+	 * the start symbol is not expanded to its empty production at the end of
+	 * the input, so the empty input is reported as a missing expression.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If two productions are chosen for the same terminal.
+	 */
+	private void generateTables() {
+		int end = symbolIds.get(END);
+		parseTable = new int[rules.size()][terminalCount];
+		productionTable = new int[rules.size()][terminalCount];
+		for (int i = 0; i < rules.size(); i++) {
+			Arrays.fill(parseTable[i], -1);
+			Arrays.fill(productionTable[i], -1);
+		}
+		for (int p = 0; p < productions.length; p++) {
+			int rule = productionRules[p];
+			boolean[] lookahead = new boolean[terminalCount];
+			addFirst(productions[p], 0, lookahead);
+			if (isNullable(productions[p], 0))
+				addAll(follow[rule], lookahead);
+			for (int t = 0; t < terminalCount; t++) {
+				if (!lookahead[t])
+					continue;
+				if (productionTable[rule][t] != -1)
+					throw new IllegalArgumentException("Not LL(1): "
+							+ rules.get(rule).getLeft() + " at "
+							+ symbols[t]);
+				parseTable[rule][t] = rule;
+				productionTable[rule][t] = p;
+			}
+		}
+		for (int i = 0; i < rules.size(); i++) {
+			for (int t = 0; t < terminalCount; t++) {
+				if (productionTable[i][t] == -1)
+					productionTable[i][t] = emptyProductions[i];
+			}
+		}
+		int start = symbolIds.get(START) - terminalCount;
+		if (productionTable[start][end] == emptyProductions[start]) {
+			for (int p = 0; p < productions.length; p++) {
+				if (productionRules[p] == start && productions[p].length > 0) {
+					productionTable[start][end] = p;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the FIRST set of the end of a production to a set.
+	 * 
+	 * @param production
+	 *            The production.
+	 * @param from
+	 *            Index of the first symbol of the end.
+	 * @param target
+	 *            The set.
+	 * @return True, if the set has changed, false otherwise.
+	 */
+	private boolean addFirst(int[] production, int from, boolean[] target) {
+		boolean changed = false;
+		for (int i = from; i < production.length; i++) {
+			int symbol = production[i];
+			if (symbol < terminalCount) {
+				if (!target[symbol]) {
+					target[symbol] = true;
+					changed = true;
+				}
+				return changed;
+			}
+			changed |= addAll(first[symbol - terminalCount], target);
+			if (!nullable[symbol - terminalCount])
+				return changed;
+		}
+		return changed;
+	}
+
+	/**
+	 * Determines if the end of a production can be empty.
+	 * 
+	 * @param production
+	 *            The production.
+	 * @param from
+	 *            Index of the first symbol of the end.
+	 * @return True, if all the symbols are nullable nonterminals.
+	 */
+	private boolean isNullable(int[] production, int from) {
+		for (int i = from; i < production.length; i++) {
+			if (production[i] < terminalCount
+					|| !nullable[production[i] - terminalCount])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a set of terminals to another one.
+	 * 
+	 * @param source
+	 *            The added set.
+	 * @param target
+	 *            The extended set.
+	 * @return True, if the extended set has changed, false otherwise.
+	 */
+	private static boolean addAll(boolean[] source, boolean[] target) {
+		boolean changed = false;
+		for (int t = 0; t < source.length; t++) {
+			if (source[t] && !target[t]) {
+				target[t] = true;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Formats the tables as the source of {@link GrammarTables}.
+	 * 
+	 * @return The source.
+	 */
+	public String toJavaSource() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("package hu.atw.eve_hci001.kalkulator.model;\n\n");
+		sb.append("/**\n");
+		sb.append(" * The LL(1) tables of the calculator, generated from the");
+		sb.append(" rules of\n * {@link Grammar} by");
+		sb.append(" {@link GrammarTableGenerator}.");
+		sb.append(" Do not edit, run the\n * generator instead.\n");
+		sb.append(" * \n");
+		sb.append(" * @author László Ádám\n");
+		sb.append(" *\n");
+		sb.append(" */\n\n");
+		sb.append("final class GrammarTables {\n");
+		sb.append("\t/** The symbols, indexed by their ids. */\n");
+		sb.append("\tstatic final String[] SYMBOLS = {");
+		/* wrapped at 80 columns, counting a tab as 4 */
+		int column = 80;
+		for (int i = 0; i < symbols.length; i++) {
+			String symbol = "\"" + symbols[i] + "\"";
+			if (column + symbol.length() + 2 > 80) {
+				sb.append("\n\t\t\t");
+				column = 12;
+			} else {
+				sb.append(' ');
+				column++;
+			}
+			sb.append(symbol).append(i < symbols.length - 1 ? "," : " };\n");
+			column += symbol.length() + 1;
+		}
+		sb.append("\t/** Number of the terminals, they come first. */\n");
+		sb.append("\tstatic final int TERMINAL_COUNT = ").append(terminalCount)
+				.append(";\n");
+		sb.append("\t/** The symbols of the productions. */\n");
+		appendTable(sb, "PRODUCTIONS", productions);
+		sb.append("\t/** The empty production of the rules, -1 if none. */\n");
+		appendArray(sb.append("\tstatic final int[] EMPTY_PRODUCTIONS = "),
+				emptyProductions);
+		sb.append(";\n");
+		sb.append("\t/** The rule applied by nonterminal and terminal. */\n");
+		appendTable(sb, "PARSE_TABLE", parseTable);
+		sb.append("\t/** The production expanded by nonterminal and terminal.");
+		sb.append(" */\n");
+		appendTable(sb, "PRODUCTION_TABLE", productionTable);
+		sb.append("\n\tprivate GrammarTables() {\n\t}\n}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Formats a table of ints as a field.
+	 * 
+	 * @param sb
+	 *            The source being built.
+	 * @param name
+	 *            Name of the field.
+	 * @param table
+	 *            The table.
+	 */
+	private static void appendTable(StringBuilder sb, String name,
+			int[][] table) {
+		sb.append("\tstatic final int[][] ").append(name).append(" = {\n");
+		for (int i = 0; i < table.length; i++) {
+			appendArray(sb.append("\t\t\t"), table[i]);
+			sb.append(i < table.length - 1 ? ",\n" : " };\n");
+		}
+	}
+
+	/**
+	 * Formats an array of ints.
+	 * 
+	 * @param sb
+	 *            The source being built.
+	 * @param array
+	 *            The array.
+	 * @return The source being built.
+	 */
+	private static StringBuilder appendArray(StringBuilder sb, int[] array) {
+		sb.append('{');
+		for (int i = 0; i < array.length; i++) {
+			sb.append(i == 0 ? " " : ", ").append(array[i]);
+		}
+		return sb.append(array.length == 0 ? "}" : " }");
+	}
+}
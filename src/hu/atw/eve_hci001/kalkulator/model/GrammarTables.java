@@ -0,0 +1,61 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * The LL(1) tables of the calculator, generated from the rules of
+ * {@link Grammar} by {@link GrammarTableGenerator}. Do not edit, run the
+ * generator instead.
+ * 
+ * @author László Ádám
+ *
+ */
+
+final class GrammarTables {
+	/** The symbols, indexed by their ids. */
+	static final String[] SYMBOLS = {
+			"double", "id", "(", ")", "*", "/", "%", "$", "+", "-", "VAR",
+			"MUD", "__A", "ADD", "__B", "EXP", "S" };
+	/** Number of the terminals, they come first. */
+	static final int TERMINAL_COUNT = 10;
+	/** The symbols of the productions. */
+	static final int[][] PRODUCTIONS = {
+			{ 0 },
+			{ 1 },
+			{ 2, 15, 3 },
+			{ 10, 12 },
+			{ 4, 11 },
+			{ 5, 11 },
+			{ 6, 11 },
+			{},
+			{ 11, 14 },
+			{ 8, 13 },
+			{ 9, 13 },
+			{},
+			{ 13 },
+			{ 9, 13 },
+			{ 8, 13 },
+			{ 15 },
+			{} };
+	/** The empty production of the rules, -1 if none. */
+	static final int[] EMPTY_PRODUCTIONS = { -1, -1, 7, -1, 11, -1, 16 };
+	/** The rule applied by nonterminal and terminal. */
+	static final int[][] PARSE_TABLE = {
+			{ 0, 0, 0, -1, -1, -1, -1, -1, -1, -1 },
+			{ 1, 1, 1, -1, -1, -1, -1, -1, -1, -1 },
+			{ -1, -1, -1, 2, 2, 2, 2, 2, 2, 2 },
+			{ 3, 3, 3, -1, -1, -1, -1, -1, -1, -1 },
+			{ -1, -1, -1, 4, -1, -1, -1, 4, 4, 4 },
+			{ 5, 5, 5, -1, -1, -1, -1, -1, 5, 5 },
+			{ 6, 6, 6, -1, -1, -1, -1, 6, 6, 6 } };
+	/** The production expanded by nonterminal and terminal. */
+	static final int[][] PRODUCTION_TABLE = {
+			{ 0, 1, 2, -1, -1, -1, -1, -1, -1, -1 },
+			{ 3, 3, 3, -1, -1, -1, -1, -1, -1, -1 },
+			{ 7, 7, 7, 7, 4, 5, 6, 7, 7, 7 },
+			{ 8, 8, 8, -1, -1, -1, -1, -1, -1, -1 },
+			{ 11, 11, 11, 11, 11, 11, 11, 11, 9, 10 },
+			{ 12, 12, 12, -1, -1, -1, -1, -1, 14, 13 },
+			{ 15, 15, 15, 16, 16, 16, 16, 15, 15, 15 } };
+
+	private GrammarTables() {
+	}
+}
@@ -0,0 +1,151 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, like an HDR
+ * histogram with a precision of one digit: every power of two is divided
+ * into 8 buckets, so a bucket is at most 12.5% wide relative to its values.
+ * Recording is a few atomic increments without locks or allocation, so it
+ * can stay on in production and be shared between threads.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class LatencyHistogram {
+	/** Number of bits below the leading one that select the bucket. */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+	/**
+	 * Constructor.
+	 */
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos
+	 *            The latency in nanoseconds, negative values count as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucketOf(nanos));
+		count.increment();
+		sum.add(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Clears the histogram. Latencies recorded at the same time may be
+	 * partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	/**
+	 * 
+	 * @return Number of the recorded latencies.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Takes a snapshot of the histogram.
+	 * 
+	 * @return The count, the mean, the percentiles and the maximum.
+	 */
+	public LatencySnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		long mean = total == 0 ? 0 : sum.sum() / total;
+		return new LatencySnapshot(total, mean, percentile(counts, total,
+				0.5), percentile(counts, total, 0.9), percentile(counts,
+				total, 0.99), percentile(counts, total, 0.999), max.get());
+	}
+
+	/**
+	 * Finds a percentile in the bucket counts.
+	 * 
+	 * @param counts
+	 *            The bucket counts.
+	 * @param total
+	 *            Sum of the bucket counts.
+	 * @param fraction
+	 *            The percentile as a fraction, 0.99 for the 99th.
+	 * @return The highest value of the bucket of the percentile, 0 if the
+	 *         histogram is empty.
+	 */
+	private static long percentile(long[] counts, long total, double fraction) {
+		if (total == 0)
+			return 0;
+		long rank = (long) Math.ceil(total * fraction);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return i == BUCKETS - 1 ? Long.MAX_VALUE : lowestOf(i + 1) - 1;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Finds the bucket of a value.
+	 * 
+	 * @param value
+	 *            The value, at least 0.
+	 * @return Index of the bucket.
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+				& (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Finds the lowest value of a bucket.
+	 * 
+	 * @param bucket
+	 *            Index of the bucket.
+	 * @return The lowest value that falls into the bucket.
+	 */
+	private static long lowestOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+	}
+}
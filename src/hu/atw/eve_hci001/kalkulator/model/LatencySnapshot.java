@@ -0,0 +1,112 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * A snapshot of a {@link LatencyHistogram}. The latencies are in
+ * nanoseconds, the percentiles are the upper bounds of their buckets.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class LatencySnapshot {
+	private final long count;
+	private final long mean;
+	private final long median;
+	private final long percentile90;
+	private final long percentile99;
+	private final long percentile999;
+	private final long max;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param count
+	 *            Number of the recorded latencies.
+	 * @param mean
+	 *            The mean.
+	 * @param median
+	 *            The 50th percentile.
+	 * @param percentile90
+	 *            The 90th percentile.
+	 * @param percentile99
+	 *            The 99th percentile.
+	 * @param percentile999
+	 *            The 99.9th percentile.
+	 * @param max
+	 *            The maximum.
+	 */
+	public LatencySnapshot(long count, long mean, long median,
+			long percentile90, long percentile99, long percentile999,
+			long max) {
+		this.count = count;
+		this.mean = mean;
+		this.median = median;
+		this.percentile90 = percentile90;
+		this.percentile99 = percentile99;
+		this.percentile999 = percentile999;
+		this.max = max;
+	}
+
+	/**
+	 * 
+	 * @return Number of the recorded latencies.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * 
+	 * @return The mean.
+	 */
+	public long getMean() {
+		return mean;
+	}
+
+	/**
+	 * 
+	 * @return The 50th percentile.
+	 */
+	public long getMedian() {
+		return median;
+	}
+
+	/**
+	 * 
+	 * @return The 90th percentile.
+	 */
+	public long getPercentile90() {
+		return percentile90;
+	}
+
+	/**
+	 * 
+	 * @return The 99th percentile.
+	 */
+	public long getPercentile99() {
+		return percentile99;
+	}
+
+	/**
+	 * 
+	 * @return The 99.9th percentile.
+	 */
+	public long getPercentile999() {
+		return percentile999;
+	}
+
+	/**
+	 * 
+	 * @return The maximum.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "count= " + count + " mean= " + mean + " p50= " + median
+				+ " p90= " + percentile90 + " p99= " + percentile99
+				+ " p99.9= " + percentile999 + " max= " + max;
+	}
+}
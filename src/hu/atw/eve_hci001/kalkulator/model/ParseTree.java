@@ -1,82 +1,243 @@
 package hu.atw.eve_hci001.kalkulator.model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * This class stores a parse three node.
+ * This class stores a parse tree. The nodes are not objects: a node is an
+ * index into parallel arrays holding its symbol, its first child and its next
+ * sibling, so a node takes a few ints and walking the tree does not follow
+ * references. The numbers are kept in a separate literal pool with their
+ * offsets in the input, the names of the variables in a name pool. The root
+ * is the node 0.
  * 
  * @author László Ádám
  *
  */
 
 public class ParseTree {
-	private String type;
-	private Object value;
-	private ArrayList<ParseTree> children;
+	/** Marks a missing child or sibling. */
+	public static final int NONE = -1;
+
+	private final Grammar grammar;
+	private int[] symbols;
+	private int[] firstChildren;
+	private int[] nextSiblings;
+	/** Index of the value of the node in its pool, NONE if it has none. */
+	private int[] values;
+	private int size;
+	private double[] literals;
+	private int[] literalOffsets;
+	private int literalsSize;
+	private String[] names;
+	private int namesSize;
 
 	/**
 	 * Constructor.
 	 * 
-	 * @param type
-	 *            Type of the node.
-	 * @param value
-	 *            Value of the node.
+	 * @param grammar
+	 *            The grammar, the symbols of the nodes are its ids.
+	 * @param rootSymbol
+	 *            Id of the symbol of the root.
 	 */
-	public ParseTree(String type, Object value) {
-		this.type = type;
-		this.value = value;
-		children = new ArrayList<ParseTree>();
+	public ParseTree(Grammar grammar, int rootSymbol) {
+		this.grammar = grammar;
+		symbols = new int[16];
+		firstChildren = new int[16];
+		nextSiblings = new int[16];
+		values = new int[16];
+		literals = new double[8];
+		literalOffsets = new int[8];
+		names = new String[0];
+		addNode(rootSymbol);
 	}
 
-	@Override
-	public String toString() {
-		String s = type + " [" + value.toString() + "](";
-		for (ParseTree child : children) {
-			s += child;
+	/**
+	 * Adds the children of a node, it must not have children yet.
+	 * 
+	 * @param parent
+	 *            The node.
+	 * @param childSymbols
+	 *            Ids of the symbols of the children, in order.
+	 * @return The first child, NONE if there are no children.
+	 */
+	public int addChildren(int parent, int[] childSymbols) {
+		if (childSymbols.length == 0)
+			return NONE;
+		int first = size;
+		for (int i = 0; i < childSymbols.length; i++) {
+			int child = addNode(childSymbols[i]);
+			if (i > 0)
+				nextSiblings[child - 1] = child;
 		}
-		s += ")";
-		return s;
+		firstChildren[parent] = first;
+		return first;
 	}
 
 	/**
+	 * Appends a node without children and siblings.
 	 * 
-	 * @return The type of the node.
+	 * @param symbol
+	 *            Id of the symbol of the node.
+	 * @return The node.
 	 */
-	public String getType() {
-		return type;
+	private int addNode(int symbol) {
+		if (size == symbols.length) {
+			int capacity = size * 2;
+			symbols = Arrays.copyOf(symbols, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		symbols[size] = symbol;
+		firstChildren[size] = NONE;
+		nextSiblings[size] = NONE;
+		values[size] = NONE;
+		return size++;
 	}
 
 	/**
+	 * Sets the number of a node.
 	 * 
-	 * @param type
-	 *            The type of the node.
+	 * @param node
+	 *            The node.
+	 * @param value
+	 *            The number.
+	 * @param offset
+	 *            Offset of the number in the input.
 	 */
-	public void setType(String type) {
-		this.type = type;
+	public void setNumber(int node, double value, int offset) {
+		if (literalsSize == literals.length) {
+			literals = Arrays.copyOf(literals, literalsSize * 2);
+			literalOffsets = Arrays.copyOf(literalOffsets, literalsSize * 2);
+		}
+		literals[literalsSize] = value;
+		literalOffsets[literalsSize] = offset;
+		values[node] = literalsSize++;
 	}
 
 	/**
+	 * Sets the name of a node.
 	 * 
-	 * @return The value of the node.
+	 * @param node
+	 *            The node.
+	 * @param name
+	 *            The name of the variable.
 	 */
-	public Object getValue() {
-		return value;
+	public void setName(int node, String name) {
+		if (namesSize == names.length)
+			names = Arrays.copyOf(names, Math.max(4, namesSize * 2));
+		names[namesSize] = name;
+		values[node] = namesSize++;
 	}
 
 	/**
 	 * 
-	 * @param value
-	 *            the value of the node.
+	 * @return The grammar of the symbols.
+	 */
+	public Grammar getGrammar() {
+		return grammar;
+	}
+
+	/**
+	 * 
+	 * @return The number of the nodes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            The node.
+	 * @return Id of the symbol of the node.
+	 */
+	public int getSymbol(int node) {
+		return symbols[node];
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            The node.
+	 * @return The first child of the node, NONE if it has no children.
+	 */
+	public int getFirstChild(int node) {
+		return firstChildren[node];
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            The node.
+	 * @return The next sibling of the node, NONE if it is the last child.
 	 */
-	public void setValue(Object value) {
-		this.value = value;
+	public int getNextSibling(int node) {
+		return nextSiblings[node];
 	}
 
 	/**
 	 * 
-	 * @return The children of the node.
+	 * @param node
+	 *            A number node.
+	 * @return The number.
 	 */
-	public ArrayList<ParseTree> getChildren() {
-		return children;
+	public double getNumber(int node) {
+		return literals[values[node]];
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            A number node.
+	 * @return Offset of the number in the input.
+	 */
+	public int getNumberOffset(int node) {
+		return literalOffsets[values[node]];
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            A variable node.
+	 * @return The name of the variable.
+	 */
+	public String getName(int node) {
+		return names[values[node]];
+	}
+
+	@Override
+	public String toString() {
+		/* iterative, so deep trees can be printed too */
+		StringBuilder sb = new StringBuilder();
+		int[] stack = new int[16];
+		int sp = 0;
+		int node = 0;
+		while (true) {
+			sb.append(grammar.getSymbol(symbols[node])).append(" [");
+			if (values[node] != NONE) {
+				if (grammar.getSymbol(symbols[node]).equals("id"))
+					sb.append(names[values[node]]);
+				else
+					sb.append(literals[values[node]]);
+			}
+			sb.append("](");
+			if (firstChildren[node] != NONE) {
+				if (sp == stack.length)
+					stack = Arrays.copyOf(stack, sp * 2);
+				stack[sp++] = node;
+				node = firstChildren[node];
+				continue;
+			}
+			/* close the node and its finished ancestors */
+			sb.append(')');
+			while (nextSiblings[node] == NONE) {
+				if (sp == 0)
+					return sb.toString();
+				node = stack[--sp];
+				sb.append(')');
+			}
+			node = nextSiblings[node];
+		}
 	}
 }
@@ -0,0 +1,48 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * A syntax error found by the recognizer: the description of the error and
+ * its offset in the input.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class SyntaxError {
+	private final String message;
+	private final int offset;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param message
+	 *            The error description.
+	 * @param offset
+	 *            Offset of the error in the input.
+	 */
+	public SyntaxError(String message, int offset) {
+		this.message = message;
+		this.offset = offset;
+	}
+
+	/**
+	 * 
+	 * @return The error description.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * 
+	 * @return Offset of the error in the input.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	@Override
+	public String toString() {
+		return message + " (at " + offset + ")";
+	}
+}
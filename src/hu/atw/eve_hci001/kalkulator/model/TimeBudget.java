@@ -0,0 +1,43 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time limit of an interpretation. The loops of the parser, the compiler and
+ * the evaluator check it after every {@link #CHECK_INTERVAL} steps, and stop
+ * when the time is up or the thread has been interrupted, for example by
+ * cancelling its {@link java.util.concurrent.Future}.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class TimeBudget {
+	/** Number of steps between two checks. */
+	public static final int CHECK_INTERVAL = 1024;
+
+	private final long deadline;
+
+	/**
+	 * Constructor. The time starts now.
+	 * 
+	 * @param millis
+	 *            The time limit in milliseconds.
+	 */
+	public TimeBudget(long millis) {
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Checks the budget.
+	 * 
+	 * @throws EvaluationException
+	 *             If the thread has been interrupted or the time is up.
+	 */
+	public void check() {
+		if (Thread.currentThread().isInterrupted())
+			throw new EvaluationException("Evaluation cancelled.");
+		if (System.nanoTime() - deadline > 0)
+			throw new EvaluationException("Time limit exceeded.");
+	}
+}
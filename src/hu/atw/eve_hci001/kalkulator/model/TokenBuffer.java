@@ -0,0 +1,160 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+import java.util.Arrays;
+
+/**
+ * Stores the lexer tokens in parallel arrays: the kind of the token (the id of
+ * its terminal symbol in the grammar), its value, its name if it's an
+ * identifier and its offset in the input. The buffer is meant to be reused.
+ * After it has grown to the longest input, tokenizing does not allocate.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public class TokenBuffer {
+	private byte[] kinds;
+	private double[] values;
+	private String[] names;
+	private int[] offsets;
+	private int size;
+
+	/**
+	 * Constructor.
+	 */
+	public TokenBuffer() {
+		this(16);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            The initial number of tokens that fit into the buffer.
+	 */
+	public TokenBuffer(int capacity) {
+		kinds = new byte[capacity];
+		values = new double[capacity];
+		names = new String[capacity];
+		offsets = new int[capacity];
+	}
+
+	/**
+	 * Removes all tokens, keeps the allocated arrays.
+	 */
+	public void clear() {
+		Arrays.fill(names, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * Appends a token.
+	 * 
+	 * @param kind
+	 *            Id of the terminal symbol of the token.
+	 * @param value
+	 *            Value of the token, 0 for operators.
+	 * @param name
+	 *            Name of the token if it's an identifier, null otherwise.
+	 * @param offset
+	 *            Offset of the first character of the token in the input.
+	 */
+	public void add(int kind, double value, String name, int offset) {
+		if (size == kinds.length) {
+			int capacity = Math.max(16, size * 2);
+			kinds = Arrays.copyOf(kinds, capacity);
+			values = Arrays.copyOf(values, capacity);
+			names = Arrays.copyOf(names, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+		}
+		kinds[size] = (byte) kind;
+		values[size] = value;
+		names[size] = name;
+		offsets[size] = offset;
+		size++;
+	}
+
+	/**
+	 * 
+	 * @return The number of tokens.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            Index of the token.
+	 * @return Id of the terminal symbol of the token.
+	 */
+	public int getKind(int index) {
+		return kinds[index];
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            Index of the token.
+	 * @return Value of the token.
+	 */
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            Index of the token.
+	 * @return Name of the token if it's an identifier, null otherwise.
+	 */
+	public String getName(int index) {
+		return names[index];
+	}
+
+	/**
+	 * 
+	 * @param index
+	 *            Index of the token.
+	 * @return Offset of the token in the input.
+	 */
+	public int getOffset(int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * Returns a cursor over the stored tokens, starting at the first one.
+	 * 
+	 * @return The cursor.
+	 */
+	public TokenSource source() {
+		return new TokenSource() {
+			private int index;
+
+			@Override
+			public int kind() {
+				return kinds[index];
+			}
+
+			@Override
+			public double value() {
+				return values[index];
+			}
+
+			@Override
+			public String name() {
+				return names[index];
+			}
+
+			@Override
+			public int offset() {
+				return offsets[index];
+			}
+
+			@Override
+			public void advance() {
+				index++;
+			}
+		};
+	}
+}
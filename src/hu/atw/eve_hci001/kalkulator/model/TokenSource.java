@@ -0,0 +1,45 @@
+package hu.atw.eve_hci001.kalkulator.model;
+
+/**
+ * A cursor over lexer tokens. The parser reads the current token and advances
+ * when it has consumed it, so the tokens can be produced lazily.
+ * 
+ * @author László Ádám
+ *
+ */
+
+public interface TokenSource {
+	/**
+	 * 
+	 * @return Id of the terminal symbol of the current token.
+	 */
+	int kind();
+
+	/**
+	 * 
+	 * @return Value of the current token, 0 for operators.
+	 */
+	double value();
+
+	/**
+	 * 
+	 * @return Name of the current token if it's an identifier, null
+	 *         otherwise.
+	 */
+	String name();
+
+	/**
+	 * 
+	 * @return Offset of the current token in the input.
+	 */
+	int offset();
+
+	/**
+	 * Steps to the next token. Must not be called after the end of the input
+	 * ("$") has been reached.
+	 * 
+	 * @throws EvaluationException
+	 *             If the next token is malformed.
+	 */
+	void advance();
+}
@@ -11,6 +11,8 @@ import javax.swing.BoxLayout;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * Graphical interface for the Kalkulator.
@@ -85,6 +87,19 @@ public class KalkulatorGUI {
 				}
 			}
 		});
+		/* live result while typing */
+		inputField.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				inputChanged(controller);
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				inputChanged(controller);
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+			}
+		});
 		frame.getContentPane().add(inputField);
 
 		/* output field */
@@ -100,6 +115,22 @@ public class KalkulatorGUI {
 		frame.setVisible(true);
 	}
 
+	/**
+	 * Sends the edited input to the controller, unless it contains unallowed
+	 * characters.
+	 * 
+	 * @param controller
+	 *            The controller object.
+	 */
+	private void inputChanged(KalkulatorController controller) {
+		String inputText = inputField.getText();
+		for (int i = 0; i < inputText.length(); i++) {
+			if (!allowedCharacters.contains(inputText.charAt(i)))
+				return;
+		}
+		controller.inputEdited(inputText);
+	}
+
 	/**
 	 * Sets and prints the output in the output field.
 	 * 